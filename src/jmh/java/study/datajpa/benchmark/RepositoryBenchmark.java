@@ -0,0 +1,191 @@
+package study.datajpa.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.DataJpaApplication;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+import study.datajpa.repository.MemberJpaRepository;
+import study.datajpa.repository.MemberRepository;
+import study.datajpa.repository.NestedClosedProjection;
+import study.datajpa.repository.TeamRepository;
+import study.datajpa.repository.UsernameOnly;
+import study.datajpa.repository.UsernameOnlyDto;
+import study.datajpa.repository.UsernameOnlyOpen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static study.datajpa.repository.MemberSpec.teamName;
+import static study.datajpa.repository.MemberSpec.username;
+
+
+// Repository read paths against an in-memory H2, one read-only transaction per invocation.
+// Run with ./gradlew jmh; results are written to build/results/jmh/results.json.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RepositoryBenchmark {
+
+  private static final int TEAMS = 10;
+  private static final int MEMBERS_PER_TEAM = 100;
+  private static final int AGE = 10;
+  private static final String USERNAME = "member7";
+  private static final String TEAM_NAME = "team3";
+  private static final PageRequest PAGE = PageRequest.of(0, 20, Sort.by(Sort.Direction.DESC, "username"));
+
+  private ConfigurableApplicationContext context;
+  private TransactionTemplate readOnly;
+  private MemberJpaRepository memberJpaRepository;
+  private MemberRepository memberRepository;
+
+
+  @Setup
+  public void setUp() {
+    context = new SpringApplicationBuilder(DataJpaApplication.class)
+        .web(WebApplicationType.NONE)
+        .run("--spring.datasource.url=jdbc:h2:mem:jmh;DB_CLOSE_DELAY=-1",  // arguments, to win over application.yml
+             "--spring.jpa.properties.hibernate.show_sql=false",
+             "--decorator.datasource.p6spy.enable-logging=false",
+             "--logging.level.root=warn",
+             "--logging.level.org.hibernate.sql=warn",
+             "--repository.n-plus-one.mode=off");
+    memberJpaRepository = context.getBean(MemberJpaRepository.class);
+    memberRepository = context.getBean(MemberRepository.class);
+
+    TransactionTemplate transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    transactionTemplate.executeWithoutResult(status -> seed(context.getBean(TeamRepository.class)));
+    readOnly = new TransactionTemplate(transactionTemplate.getTransactionManager());
+    readOnly.setReadOnly(true);
+  }
+
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+
+  private void seed(TeamRepository teamRepository) {
+    List<Member> members = new ArrayList<>();
+    for (int t = 0; t < TEAMS; ++t) {
+      Team team = new Team("team" + t);
+      teamRepository.save(team);
+      for (int i = 0; i < MEMBERS_PER_TEAM; ++i)
+        members.add(new Member("member" + i, i % 50, team));
+    }
+    memberRepository.saveAllBatched(members);
+  }
+
+
+  @Benchmark
+  public Object pagingHandWritten() {
+    return inTx(() -> memberJpaRepository.findByPage(AGE, 0, PAGE.getPageSize()).size()
+                      + memberJpaRepository.totalCount(AGE));
+  }
+
+
+  @Benchmark
+  public Object pagingSpringData() {
+    return inTx(() -> memberRepository.findByAge(AGE, PAGE));
+  }
+
+
+  @Benchmark
+  public Object fetchJoin() {
+    return inTx(() -> teamNames(memberRepository.findFetchJoinAll()));
+  }
+
+
+  @Benchmark
+  public Object entityGraph() {
+    return inTx(() -> teamNames(memberRepository.findMemberEntityGraphAll()));
+  }
+
+
+  @Benchmark
+  public Object lazyLoading() {
+    return inTx(() -> teamNames(memberRepository.findMemberCustom()));
+  }
+
+
+  @Benchmark
+  public Object interfaceProjection() {
+    return inTx(() -> memberRepository.findProjectionsByUsername(USERNAME, UsernameOnly.class));
+  }
+
+
+  @Benchmark
+  public Object classProjection() {
+    return inTx(() -> memberRepository.findProjectionsByUsername(USERNAME, UsernameOnlyDto.class));
+  }
+
+
+  @Benchmark
+  public Object openProjection() {
+    return inTx(() -> memberRepository.findProjectionsByUsername(USERNAME, UsernameOnlyOpen.class)
+                                      .stream()
+                                      .map(UsernameOnlyOpen::getUsername)
+                                      .count());
+  }
+
+
+  @Benchmark
+  public Object nestedProjection() {
+    return inTx(() -> memberRepository.findProjectionsByUsername(USERNAME, NestedClosedProjection.class)
+                                      .stream()
+                                      .map(p -> p.getTeam().getName())
+                                      .count());
+  }
+
+
+  @Benchmark
+  public Object nativeProjection() {
+    return inTx(() -> memberRepository.findByNativeProjection(PAGE.withSort(Sort.unsorted())).getContent());
+  }
+
+
+  @Benchmark
+  public Object specification() {
+    return inTx(() -> memberRepository.findAll(username(USERNAME).and(teamName(TEAM_NAME))));
+  }
+
+
+  @Benchmark
+  public Object queryByExample() {
+    Member probe = new Member(USERNAME, 0, new Team(TEAM_NAME));
+    ExampleMatcher matcher = ExampleMatcher.matching().withIgnorePaths("age");
+    return inTx(() -> memberRepository.findAll(Example.of(probe, matcher)));
+  }
+
+
+  private <T> T inTx(Supplier<T> work) {
+    return readOnly.execute(status -> work.get());
+  }
+
+
+  private static long teamNames(List<Member> members) {
+    return members.stream()
+                  .map(m -> m.getTeam() == null ? null : m.getTeam().getName())
+                  .filter(name -> name != null)
+                  .count();
+  }
+
+}
@@ -2,15 +2,10 @@ package study.datajpa;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
-import org.springframework.data.domain.AuditorAware;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 
-import java.util.Optional;
-import java.util.UUID;
 
-
-@EnableJpaAuditing
+@EnableJpaAuditing(dateTimeProviderRef = "auditClock")  // auditor: CachedAuditor
 @SpringBootApplication
 public class DataJpaApplication {
 
@@ -18,10 +13,4 @@ public class DataJpaApplication {
 		SpringApplication.run(DataJpaApplication.class, args);
 	}
 
-
-	@Bean
-	public AuditorAware<String> autitorProvider() {
-		return () -> Optional.of(UUID.randomUUID().toString());
-	}
-
 }
@@ -0,0 +1,48 @@
+package study.datajpa.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import study.datajpa.repository.RepositoryExecutor;
+import study.datajpa.support.VirtualThreads;
+
+import javax.sql.DataSource;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+
+// repository.virtual-threads serves each request on a virtual thread. At most as many requests run as
+// the Hikari pool has connections left over by the RepositoryExecutor, so the rest wait for a permit
+// here rather than in getConnection(). The wait parks the request's virtual thread; Tomcat's poller
+// only starts it and never blocks.
+@Slf4j
+@Configuration
+public class AsyncExecutionConfig {
+
+  @Bean
+  @ConditionalOnProperty(name = "repository.virtual-threads", havingValue = "true")
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadRequests(DataSource dataSource,
+                                                                  RepositoryExecutor repositoryExecutor) {
+    ThreadFactory factory = VirtualThreads.factory("request-");
+    if (factory == null) {
+      log.warn("virtual threads are not available on this JDK, requests use Tomcat's thread pool");
+      return protocolHandler -> {};
+    }
+    int limit = Math.max(1, RepositoryExecutor.connectionPoolSize(dataSource) - repositoryExecutor.getConcurrency());
+    Semaphore running = new Semaphore(limit);
+    Executor executor = command -> factory.newThread(() -> {
+      running.acquireUninterruptibly();
+      try {
+        command.run();
+      }
+      finally {
+        running.release();
+      }
+    }).start();
+    return protocolHandler -> protocolHandler.setExecutor(executor);
+  }
+
+}
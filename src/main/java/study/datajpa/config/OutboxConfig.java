@@ -0,0 +1,49 @@
+package study.datajpa.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.transaction.PlatformTransactionManager;
+import study.datajpa.support.ChangeEventRelay;
+import study.datajpa.support.ChangeEventSink;
+import study.datajpa.support.FileChangeEventSink;
+import study.datajpa.support.InMemoryChangeEventSink;
+
+import java.nio.file.Path;
+
+
+// Relays the change_event outbox (see ChangeEventOutbox) once repository.outbox.sink is set: "memory"
+// and "file" (JSON lines in repository.outbox.file) are built in; with any other value, declare the
+// ChangeEventSink bean yourself.
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty("repository.outbox.sink")
+public class OutboxConfig {
+
+  @Bean
+  @ConditionalOnProperty(name = "repository.outbox.sink", havingValue = "memory")
+  public InMemoryChangeEventSink inMemoryChangeEventSink() {
+    return new InMemoryChangeEventSink();
+  }
+
+
+  @Bean
+  @ConditionalOnProperty(name = "repository.outbox.sink", havingValue = "file")
+  public FileChangeEventSink fileChangeEventSink(@Value("${repository.outbox.file:change-events.jsonl}") Path file,
+                                                 ObjectMapper objectMapper) {
+    return new FileChangeEventSink(file, objectMapper);
+  }
+
+
+  @Bean
+  public ChangeEventRelay changeEventRelay(ChangeEventSink sink, PlatformTransactionManager transactionManager,
+                                           @Value("${repository.outbox.batch-size:1000}") int batchSize,
+                                           MeterRegistry meterRegistry) {
+    return new ChangeEventRelay(sink, transactionManager, batchSize, meterRegistry);
+  }
+
+}
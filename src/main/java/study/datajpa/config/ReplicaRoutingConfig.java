@@ -0,0 +1,67 @@
+package study.datajpa.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.StringUtils;
+import study.datajpa.support.ReplicaRoutingDataSource;
+import study.datajpa.support.ReplicaRoutingTransactionManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Enabled by repository.replicas.urls (comma separated); replaces the auto-configured DataSource and
+// transaction manager. The replicas share the primary's driver and credentials. The pools are not beans,
+// so the DataSource decorator wraps only the routing DataSource and each statement is logged once.
+// Blank URLs are skipped; with none left, everything goes to the primary.
+@Slf4j
+@Configuration
+@ConditionalOnProperty("repository.replicas.urls")
+public class ReplicaRoutingConfig {
+
+  @Bean
+  public ReplicaRoutingDataSource dataSource(DataSourceProperties properties,
+                                             @Value("${repository.replicas.urls}") List<String> urls,
+                                             @Value("${repository.replicas.read-your-writes:5s}") Duration readYourWrites) {
+    HikariDataSource primary = pool(properties, properties.determineUrl(), "primary");
+    List<HikariDataSource> replicas = new ArrayList<>();
+    for (String url : urls) {
+      if (!StringUtils.hasText(url))
+        continue;
+      HikariDataSource replica = pool(properties, url, "replica-" + replicas.size());
+      replica.setReadOnly(true);
+      replicas.add(replica);
+    }
+    if (replicas.isEmpty())
+      log.warn("repository.replicas.urls names no replica, read-only transactions use the primary");
+    return new ReplicaRoutingDataSource(primary, replicas, readYourWrites);
+  }
+
+
+  @Bean
+  public PlatformTransactionManager transactionManager(ObjectProvider<TransactionManagerCustomizers> customizers) {
+    ReplicaRoutingTransactionManager transactionManager = new ReplicaRoutingTransactionManager();
+    customizers.ifAvailable(c -> c.customize(transactionManager));
+    return transactionManager;
+  }
+
+
+  private static HikariDataSource pool(DataSourceProperties properties, String url, String name) {
+    HikariDataSource pool = properties.initializeDataSourceBuilder()
+                                      .type(HikariDataSource.class)
+                                      .url(url)
+                                      .build();
+    pool.setPoolName(name);
+    return pool;
+  }
+
+}
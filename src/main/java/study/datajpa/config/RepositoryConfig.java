@@ -0,0 +1,37 @@
+package study.datajpa.config;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import study.datajpa.support.EntityChangeDispatcher;
+import study.datajpa.support.PersistenceContextGuard;
+
+import java.util.List;
+
+
+@Configuration
+public class RepositoryConfig {
+
+  @Bean
+  public HibernatePropertiesCustomizer statementInspectorCustomizer(List<StatementInspector> inspectors) {
+    StatementInspector composite = sql -> {
+      for (StatementInspector inspector : inspectors)
+        sql = inspector.inspect(sql);
+      return sql;
+    };
+    return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, composite);
+  }
+
+
+  @Bean
+  public HibernatePropertiesCustomizer integratorCustomizer(PersistenceContextGuard guard,
+                                                            EntityChangeDispatcher dispatcher) {
+    IntegratorProvider integrators = () -> List.of(guard.integrator(), dispatcher.integrator());
+    return properties -> properties.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER, integrators);
+  }
+
+}
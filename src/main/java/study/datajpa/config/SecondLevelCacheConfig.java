@@ -0,0 +1,66 @@
+package study.datajpa.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import java.net.URI;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+
+// In-process Caffeine regions for the Hibernate second-level cache, each bounded by size and TTL.
+// Regions are created here rather than on demand, so a typo in a region name fails at startup.
+@Configuration
+public class SecondLevelCacheConfig {
+
+  public static final String[] ENTITY_REGIONS = {"member", "team", "team.members"};
+  public static final String[] QUERY_REGIONS = {"member.by-username", "default-query-results-region"};
+  public static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+
+  // one manager per application context, so test contexts never share regions
+  @Bean(destroyMethod = "close")
+  public CacheManager hibernateCacheManager(@Value("${repository.cache.entity-max-size:10000}") long entityMaxSize,
+                                            @Value("${repository.cache.entity-ttl:10m}") Duration entityTtl,
+                                            @Value("${repository.cache.query-max-size:1000}") long queryMaxSize,
+                                            @Value("${repository.cache.query-ttl:5m}") Duration queryTtl) {
+    CaffeineCachingProvider provider = new CaffeineCachingProvider();
+    CacheManager cacheManager = provider.getCacheManager(URI.create("datajpa-" + UUID.randomUUID()),
+                                                         getClass().getClassLoader());
+    for (String region : ENTITY_REGIONS)
+      cacheManager.createCache(region, region(entityMaxSize, entityTtl));
+    for (String region : QUERY_REGIONS)
+      cacheManager.createCache(region, region(queryMaxSize, queryTtl));
+    cacheManager.createCache(TIMESTAMPS_REGION, region(null, null));  // must outlive every cached query result
+    return cacheManager;
+  }
+
+
+  @Bean
+  public HibernatePropertiesCustomizer secondLevelCacheCustomizer(CacheManager hibernateCacheManager) {
+    return properties -> {
+      properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+      properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+    };
+  }
+
+
+  private static CaffeineConfiguration<Object, Object> region(Long maxSize, Duration ttl) {
+    CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+    configuration.setStoreByValue(false);  // Hibernate already stores disassembled, immutable entries
+    configuration.setNativeStatisticsEnabled(true);
+    if (maxSize != null)
+      configuration.setMaximumSize(OptionalLong.of(maxSize));
+    if (ttl != null)
+      configuration.setExpireAfterWrite(OptionalLong.of(ttl.toNanos()));
+    return configuration;
+  }
+
+}
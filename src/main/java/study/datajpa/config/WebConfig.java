@@ -0,0 +1,26 @@
+package study.datajpa.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import study.datajpa.entity.Member;
+import study.datajpa.repository.MemberLookupCoalescer;
+
+
+// Member path variables resolve through the lookup coalescer. The converter is registered for
+// String -> Member, which is matched before Spring Data's DomainClassConverter (Object -> Object).
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+
+  private final MemberLookupCoalescer memberLookupCoalescer;
+
+
+  @Override
+  public void addFormatters(FormatterRegistry registry) {
+    registry.addConverter(String.class, Member.class,
+                          id -> id.isEmpty() ? null : memberLookupCoalescer.findById(Long.valueOf(id)).orElse(null));
+  }
+
+}
@@ -0,0 +1,31 @@
+package study.datajpa.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import study.datajpa.dto.CacheRegionStatsDto;
+
+import javax.cache.CacheManager;
+import java.util.ArrayList;
+import java.util.List;
+
+
+@RestController
+@RequiredArgsConstructor
+public class CacheStatsController {
+
+  private final CacheManager hibernateCacheManager;
+
+
+  @GetMapping("/cache/stats")
+  public List<CacheRegionStatsDto> stats() {
+    List<CacheRegionStatsDto> regions = new ArrayList<>();
+    for (String name : hibernateCacheManager.getCacheNames()) {
+      Cache<?, ?> cache = hibernateCacheManager.getCache(name).unwrap(Cache.class);
+      regions.add(new CacheRegionStatsDto(name, cache.estimatedSize(), cache.stats()));
+    }
+    return regions;
+  }
+
+}
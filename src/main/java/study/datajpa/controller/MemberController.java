@@ -1,29 +1,55 @@
 package study.datajpa.controller;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import study.datajpa.dto.MemberDto;
 import study.datajpa.entity.Member;
+import study.datajpa.repository.BatchInsertSummary;
+import study.datajpa.repository.CountMode;
+import study.datajpa.repository.KeysetWindow;
+import study.datajpa.repository.MemberLookupCoalescer;
+import study.datajpa.repository.MemberQueryRepository;
 import study.datajpa.repository.MemberRepository;
+import study.datajpa.repository.SliceMode;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
+@Slf4j
 @RestController
 @RequiredArgsConstructor
 public class MemberController {
 
   private final MemberRepository memberRepository;
+  private final MemberQueryRepository memberQueryRepository;
+  private final MemberExporter memberExporter;
+  private final MemberPageEncoder memberPageEncoder;
+  private final MemberLookupCoalescer memberLookupCoalescer;
 
 
+  // Concurrent lookups share database round trips, see MemberLookupCoalescer; /members2 goes through it too.
   @GetMapping("/members/{id}")
   public String findMember(@PathVariable("id") Long id) {
-    return memberRepository.findById(id).map(Member::getUsername).orElse("");
+    return memberLookupCoalescer.findById(id).map(Member::getUsername).orElse("");
   }
 
 
@@ -38,21 +64,108 @@ public class MemberController {
 //    return memberRepository.findAll(pageable);
 //  }
   public Page<MemberDto> list(Pageable pageable) {
-    return memberRepository.findAll(pageable).map(MemberDto::new);
+    return memberQueryRepository.findMemberDtoPage(sortable(pageable), CountMode.CACHED);
+  }
+
+
+  // Compact binary for service-to-service callers asking for it in Accept; JSON stays the default.
+  @GetMapping(value = "/members", produces = {MemberPageEncoder.CBOR, MemberPageEncoder.SMILE})
+  public ResponseEntity<StreamingResponseBody> listBinary(@RequestHeader(HttpHeaders.ACCEPT) String accept,
+                                                          Pageable pageable) {
+    return binary(accept, pageable);
+  }
+
+
+  // A malformed continuation or an unsupported sort key is the client's mistake: 400, not 500.
+  // The repository proxy hands IllegalArgumentException on as InvalidDataAccessApiUsageException.
+  @GetMapping("/members/seek")
+  public KeysetWindow<MemberDto> seek(@RequestParam(value = "continuation", required = false) String continuation,
+                                      @PageableDefault(sort = "id") Pageable pageable) {
+    try {
+      return memberRepository.findMemberWindow(pageable.getSort(), continuation, pageable.getPageSize())
+                             .map(MemberDto::new);
+    }
+    catch (IllegalArgumentException | InvalidDataAccessApiUsageException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+  }
+
+
+  // An unknown format is the client's mistake too, as in seek().
+  @GetMapping("/members/export")
+  public ResponseEntity<StreamingResponseBody> export(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                                      @RequestParam(value = "fetchSize", defaultValue = "500") int fetchSize) {
+    MemberExporter.Format exportFormat;
+    try {
+      exportFormat = MemberExporter.Format.of(format);
+    }
+    catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+    StreamingResponseBody body = out -> memberExporter.export(exportFormat, fetchSize, out);
+    return ResponseEntity.ok()
+                         .contentType(exportFormat.getMediaType())
+                         .body(body);
   }
 
 
   @GetMapping("/members_page")
-  public Page<Member> list2(@PageableDefault(size = 5) Pageable pageable) {
-    return memberRepository.findAll(pageable);
+  public Page<MemberDto> list2(@PageableDefault(size = 5) Pageable pageable) {
+    return memberQueryRepository.findMemberDtoPage(sortable(pageable), CountMode.CACHED);
+  }
+
+
+  @GetMapping(value = "/members_page", produces = {MemberPageEncoder.CBOR, MemberPageEncoder.SMILE})
+  public ResponseEntity<StreamingResponseBody> list2Binary(@RequestHeader(HttpHeaders.ACCEPT) String accept,
+                                                           @PageableDefault(size = 5) Pageable pageable) {
+    return binary(accept, pageable);
+  }
+
+
+  // Releases the request thread while the page is read on the repository executor.
+  @GetMapping("/members_async")
+  public CompletableFuture<Page<MemberDto>> listAsync(@PageableDefault(size = 5) Pageable pageable) {
+    return memberQueryRepository.findMemberDtoPageAsync(sortable(pageable), CountMode.CACHED);
+  }
+
+
+  // Scrolling forward hits the slice prefetched by the previous request.
+  @GetMapping("/members/slice")
+  public Slice<MemberDto> slice(@RequestParam("age") int age, @PageableDefault(size = 5) Pageable pageable) {
+    return memberQueryRepository.findMemberDtoSliceByAge(age, sortable(pageable), SliceMode.PREFETCH);
+  }
+
+
+  // An unsupported sort key is a 400 as in seek(); checked up front, since the binary and async pages
+  // only read once the response has started.
+  private static Pageable sortable(Pageable pageable) {
+    try {
+      MemberQueryRepository.checkSort(pageable.getSort());
+    }
+    catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+    return pageable;
+  }
+
+
+  private ResponseEntity<StreamingResponseBody> binary(String accept, Pageable pageable) {
+    MediaType mediaType = MemberPageEncoder.negotiate(accept);
+    Pageable checked = sortable(pageable);
+    return ResponseEntity.ok()
+                         .contentType(mediaType)
+                         .body(out -> memberPageEncoder.encode(mediaType, checked, CountMode.CACHED, out));
   }
 
 
   @PostConstruct
   void init() {
+    List<Member> members = new ArrayList<>();
     for (int i = 0; i < 100; ++i) {
-      memberRepository.save(new Member("user" + i, i));
+      members.add(new Member("user" + i, i));
     }
+    BatchInsertSummary summary = memberRepository.saveAllBatched(members);
+    log.info("init members: {}", summary);
   }
 
 }
@@ -0,0 +1,95 @@
+package study.datajpa.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import study.datajpa.dto.MemberDto;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+import study.datajpa.repository.MemberRepository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+
+@Component
+@RequiredArgsConstructor
+public class MemberExporter {
+
+  private final MemberRepository memberRepository;
+  private final ObjectMapper objectMapper;
+
+
+  @Transactional(readOnly = true)
+  public void export(Format format, int fetchSize, OutputStream out) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    if (format == Format.CSV)
+      writer.write("id,username,teamName\n");
+
+    try (Stream<Member> members = memberRepository.streamAll(fetchSize)) {
+      members.forEach(m -> {
+        Team team = m.getTeam();
+        MemberDto dto = new MemberDto(m.getId(), m.getUsername(), team == null ? null : team.getName());
+        try {
+          writer.write(format == Format.CSV ? csv(dto) : objectMapper.writeValueAsString(dto));
+          writer.write('\n');
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writer.flush();
+  }
+
+
+  private static String csv(MemberDto dto) {
+    return dto.getId() + "," + csvField(dto.getUsername()) + "," + csvField(dto.getTeamName());
+  }
+
+
+  private static String csvField(String value) {
+    if (value == null)
+      return "";
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+      return value;
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+
+  public enum Format {
+
+    NDJSON(MediaType.parseMediaType("application/x-ndjson")),
+    CSV(MediaType.parseMediaType("text/csv"));
+
+    private final MediaType mediaType;
+
+
+    Format(MediaType mediaType) {
+      this.mediaType = mediaType;
+    }
+
+
+    public MediaType getMediaType() {
+      return mediaType;
+    }
+
+
+    public static Format of(String name) {
+      return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+  }
+
+}
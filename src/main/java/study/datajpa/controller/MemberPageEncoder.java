@@ -0,0 +1,94 @@
+package study.datajpa.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import study.datajpa.repository.CountMode;
+import study.datajpa.repository.MemberQueryRepository;
+import study.datajpa.repository.PageCountTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+
+// Writes a member page as CBOR or Smile straight from the JDBC rows, without a Page or DTOs:
+// {"columns": ["id", "username", "teamName"], "content": [[1, "user1", null], ...],
+//  "number": 0, "size": 20, "totalElements": 100, "totalExact": true}
+// The total comes after the content because CACHED counts are derived from the rows read.
+@Component
+@RequiredArgsConstructor
+public class MemberPageEncoder {
+
+  public static final String CBOR = "application/cbor";
+  public static final String SMILE = "application/x-jackson-smile";
+
+  private static final MediaType CBOR_TYPE = MediaType.parseMediaType(CBOR);
+  private static final MediaType SMILE_TYPE = MediaType.parseMediaType(SMILE);
+
+  private static final List<String> COLUMNS = List.of("id", "username", "teamName");
+
+  private final MemberQueryRepository memberQueryRepository;
+  private final JsonFactory cborFactory = new CBORFactory();
+  private final JsonFactory smileFactory = new SmileFactory();
+
+
+  // the first of CBOR and Smile named in Accept, by quality
+  public static MediaType negotiate(String accept) {
+    List<MediaType> accepted = MediaType.parseMediaTypes(accept);
+    MediaType.sortBySpecificityAndQuality(accepted);
+    for (MediaType mediaType : accepted) {
+      if (mediaType.equalsTypeAndSubtype(SMILE_TYPE))
+        return SMILE_TYPE;
+      if (mediaType.equalsTypeAndSubtype(CBOR_TYPE))
+        return CBOR_TYPE;
+    }
+    return CBOR_TYPE;
+  }
+
+
+  public void encode(MediaType mediaType, Pageable pageable, CountMode countMode, OutputStream out) throws IOException {
+    JsonFactory factory = mediaType.equalsTypeAndSubtype(SMILE_TYPE) ? smileFactory : cborFactory;
+    try (JsonGenerator generator = factory.createGenerator(out)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("columns");
+      for (String column : COLUMNS)
+        generator.writeString(column);
+      generator.writeEndArray();
+
+      generator.writeArrayFieldStart("content");
+      PageCountTemplate.Total total;
+      try {
+        total = memberQueryRepository.streamMemberDtoPage(pageable, countMode, (id, username, teamName) -> {
+          try {
+            generator.writeStartArray();
+            generator.writeNumber(id);
+            generator.writeString(username);
+            generator.writeString(teamName);
+            generator.writeEndArray();
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      }
+      catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      generator.writeEndArray();
+
+      generator.writeNumberField("number", pageable.isPaged() ? pageable.getPageNumber() : 0);
+      generator.writeNumberField("size", pageable.isPaged() ? pageable.getPageSize() : (int) total.getValue());
+      generator.writeNumberField("totalElements", total.getValue());
+      generator.writeBooleanField("totalExact", total.isExact());
+      generator.writeEndObject();
+    }
+  }
+
+}
@@ -0,0 +1,27 @@
+package study.datajpa.dto;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Getter;
+
+
+@Getter
+public class CacheRegionStatsDto {
+
+  private final String region;
+  private final long size;
+  private final long hits;
+  private final long misses;
+  private final double hitRate;
+  private final long evictions;
+
+
+  public CacheRegionStatsDto(String region, long size, CacheStats stats) {
+    this.region = region;
+    this.size = size;
+    this.hits = stats.hitCount();
+    this.misses = stats.missCount();
+    this.hitRate = stats.hitRate();
+    this.evictions = stats.evictionCount();
+  }
+
+}
@@ -0,0 +1,45 @@
+package study.datajpa.entity;
+
+import study.datajpa.support.AuditClock;
+import study.datajpa.support.CachedAuditor;
+
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import java.time.LocalDateTime;
+
+
+// Fills the BaseTimeEntity/BaseEntity audit fields through plain method calls rather than
+// AuditingEntityListener's reflective handlers. Created by Hibernate through the Spring bean container.
+public class AuditListener {
+
+  private final AuditClock clock;
+  private final CachedAuditor auditor;
+
+
+  public AuditListener(AuditClock clock, CachedAuditor auditor) {
+    this.clock = clock;
+    this.auditor = auditor;
+  }
+
+
+  @PrePersist
+  public void prePersist(Object entity) {
+    if (!(entity instanceof BaseTimeEntity))
+      return;
+    LocalDateTime now = clock.now();
+    ((BaseTimeEntity) entity).markCreated(now);
+    if (entity instanceof BaseEntity)
+      ((BaseEntity) entity).markCreated(auditor.current());
+  }
+
+
+  @PreUpdate
+  public void preUpdate(Object entity) {
+    if (!(entity instanceof BaseTimeEntity))
+      return;
+    ((BaseTimeEntity) entity).markModified(clock.now());
+    if (entity instanceof BaseEntity)
+      ((BaseEntity) entity).markModified(auditor.current());
+  }
+
+}
@@ -1,25 +1,29 @@
 package study.datajpa.entity;
 
 import lombok.Getter;
-import org.springframework.data.annotation.CreatedBy;
-import org.springframework.data.annotation.LastModifiedBy;
-import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import javax.persistence.Column;
-import javax.persistence.EntityListeners;
 import javax.persistence.MappedSuperclass;
 
 
 @Getter
-@EntityListeners(AuditingEntityListener.class)
 @MappedSuperclass
-public class BaseEntity extends BaseTimeEntity {
+public class BaseEntity extends BaseTimeEntity {  // audited by AuditListener, declared on BaseTimeEntity
 
-  @CreatedBy
   @Column(updatable = false)
   private String createdBy;
 
-  @LastModifiedBy
   private String lastModifiedBy;
 
+
+  void markCreated(String auditor) {
+    createdBy = auditor;
+    lastModifiedBy = auditor;
+  }
+
+
+  void markModified(String auditor) {
+    lastModifiedBy = auditor;
+  }
+
 }
@@ -1,9 +1,6 @@
 package study.datajpa.entity;
 
 import lombok.Getter;
-import org.springframework.data.annotation.CreatedDate;
-import org.springframework.data.annotation.LastModifiedDate;
-import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import javax.persistence.Column;
 import javax.persistence.EntityListeners;
@@ -12,15 +9,24 @@ import java.time.LocalDateTime;
 
 
 @Getter
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners(AuditListener.class)
 @MappedSuperclass
 public class BaseTimeEntity {
 
-  @CreatedDate
   @Column(updatable = false)
   private LocalDateTime createdDate;
 
-  @LastModifiedDate
   private LocalDateTime lastModifiedDate;
 
+
+  void markCreated(LocalDateTime now) {
+    createdDate = now;
+    lastModifiedDate = now;
+  }
+
+
+  void markModified(LocalDateTime now) {
+    lastModifiedDate = now;
+  }
+
 }
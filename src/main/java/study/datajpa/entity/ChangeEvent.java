@@ -0,0 +1,41 @@
+package study.datajpa.entity;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import study.datajpa.support.EntityChange;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+
+// One row of the change_event outbox: which entity changed, how, and its version after the change.
+// Written by ChangeEventOutbox with plain JDBC, read and deleted by ChangeEventRelay.
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString
+@Table(name = "change_event")
+public class ChangeEvent {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)  // rows are inserted in batches outside Hibernate
+  private Long id;
+
+  @Column(nullable = false)
+  private String entityType;
+
+  @Column(nullable = false)
+  private String entityId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private EntityChange.Kind kind;
+
+  private Long version;
+
+  @Column(nullable = false)
+  private LocalDateTime occurredAt;
+
+}
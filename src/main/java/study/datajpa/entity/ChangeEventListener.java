@@ -0,0 +1,42 @@
+package study.datajpa.entity;
+
+import org.springframework.beans.factory.ObjectProvider;
+import study.datajpa.support.ChangeEventOutbox;
+import study.datajpa.support.EntityChange;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+
+// Hands every flushed insert, update and delete of the entity to ChangeEventOutbox, which writes them
+// to change_event when the transaction commits. Created by Hibernate through the Spring bean container,
+// while the EntityManagerFactory the outbox depends on is still being built, hence the provider.
+public class ChangeEventListener {
+
+  private final ObjectProvider<ChangeEventOutbox> outbox;
+
+
+  public ChangeEventListener(ObjectProvider<ChangeEventOutbox> outbox) {
+    this.outbox = outbox;
+  }
+
+
+  @PostPersist
+  public void postPersist(Object entity) {
+    outbox.getObject().record(entity, EntityChange.Kind.INSERT);
+  }
+
+
+  @PostUpdate
+  public void postUpdate(Object entity) {
+    outbox.getObject().record(entity, EntityChange.Kind.UPDATE);
+  }
+
+
+  @PostRemove
+  public void postRemove(Object entity) {
+    outbox.getObject().record(entity, EntityChange.Kind.DELETE);
+  }
+
+}
@@ -7,6 +7,7 @@ import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.domain.Persistable;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
@@ -15,7 +16,7 @@ import java.time.LocalDateTime;
 
 
 @Entity
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({AuditingEntityListener.class, ChangeEventListener.class})
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 public class Item implements Persistable<String> {
 
@@ -24,6 +25,7 @@ public class Item implements Persistable<String> {
   private String id;
 
   @CreatedDate
+  @Column(updatable = false)  // kept by ItemRepository.upsertAll when the item exists
   private LocalDateTime createdDate;
 
 
@@ -1,6 +1,8 @@
 package study.datajpa.entity;
 
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 
@@ -14,21 +16,36 @@ import static javax.persistence.FetchType.LAZY;
 @ToString(of = {"id", "username", "age"})
 @NamedQuery(
     name = "Member.findByUsername",
-    query = "select m from Member m where m.username = :username"
+    query = "select m from Member m where m.username = :username",
+    hints = {
+        @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+        @QueryHint(name = "org.hibernate.cacheRegion", value = "member.by-username")
+    }
 )
 @NamedEntityGraph(
     name = "Member.all",
     attributeNodes = @NamedAttributeNode("team")
 )
+@Table(indexes = {
+    @Index(name = "idx_member_username_id", columnList = "username, member_id"),  // keyset windows
+    @Index(name = "idx_member_age_id", columnList = "age, member_id")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "member")
+@EntityListeners(ChangeEventListener.class)
 public class Member extends BaseEntity {  // JpaBaseEntity
 
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "member_seq_generator")
+  @SequenceGenerator(name = "member_seq_generator", sequenceName = "member_seq", allocationSize = 50)
   @Column(name = "member_id")
   private Long id;
   private String username;
   private int age;
 
+  @Version
+  private Long version;
+
   @ManyToOne(fetch = LAZY)
   @JoinColumn(name = "team_id")
   private Team team;
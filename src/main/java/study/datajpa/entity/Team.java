@@ -4,6 +4,8 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.ArrayList;
@@ -14,15 +16,23 @@ import java.util.List;
 @Getter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 @ToString(of = {"id", "name"})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "team")
+@EntityListeners(ChangeEventListener.class)
 public class Team {
 
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "team_seq_generator")
+  @SequenceGenerator(name = "team_seq_generator", sequenceName = "team_seq", allocationSize = 50)
   @Column(name = "team_id")
   private Long id;
   private String name;
 
+  @Version
+  private Long version;
+
   @OneToMany(mappedBy = "team")
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "team.members")
   List<Member> members = new ArrayList<>();
 
 
@@ -0,0 +1,24 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+@Getter
+@ToString
+public class BatchInsertSummary {
+
+  private final long rows;
+  private final int chunks;
+  private final long elapsedMillis;
+  private final double rowsPerSecond;
+
+
+  public BatchInsertSummary(long rows, int chunks, long elapsedNanos) {
+    this.rows = rows;
+    this.chunks = chunks;
+    this.elapsedMillis = elapsedNanos / 1_000_000;
+    this.rowsPerSecond = elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+  }
+
+}
@@ -0,0 +1,51 @@
+package study.datajpa.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+
+// Persists in chunks of the JDBC batch size and flushes/clears after each chunk, so inserts go out
+// as batched statements and the persistence context never holds more than one chunk.
+// Entities of the surrounding transaction are detached by the clear as well.
+@Component
+public class BatchInsertTemplate {
+
+  @PersistenceContext
+  private EntityManager em;
+
+  private final int chunkSize;
+
+
+  public BatchInsertTemplate(@Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}") int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+
+  @Transactional
+  public <T> BatchInsertSummary persistAll(Iterable<T> entities) {
+    long start = System.nanoTime();
+    em.flush();  // pending changes of the caller must not be lost by the first clear
+
+    long rows = 0;
+    int chunks = 0;
+    for (T entity : entities) {
+      em.persist(entity);
+      if (++rows % chunkSize == 0) {
+        em.flush();
+        em.clear();
+        ++chunks;
+      }
+    }
+    if (rows % chunkSize != 0) {
+      em.flush();
+      em.clear();
+      ++chunks;
+    }
+    return new BatchInsertSummary(rows, chunks, System.nanoTime() - start);
+  }
+
+}
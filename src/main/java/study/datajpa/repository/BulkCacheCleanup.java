@@ -0,0 +1,72 @@
+package study.datajpa.repository;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+
+// Second-level cache cleanup for rows written behind Hibernate's back, in two phases like Hibernate's
+// own BulkOperationCleanupAction, but per id rather than per region: the entries are locked (read-write
+// regions) or removed now, and the query spaces pre-invalidated; after the transaction completes the
+// locks are released and the spaces invalidated again. Without the second phase a concurrent load could
+// put the pre-commit state back before this transaction commits.
+class BulkCacheCleanup implements AfterTransactionCompletionProcess {
+
+  private final EntityDataAccess access;
+  private final List<Object> keys = new ArrayList<>();
+  private final List<SoftLock> locks = new ArrayList<>();
+  private final List<String> collectionRoles = new ArrayList<>();
+  private final String[] spaces;
+
+
+  private BulkCacheCleanup(EntityDataAccess access, String[] spaces) {
+    this.access = access;
+    this.spaces = spaces;
+  }
+
+
+  // delete: also the cached collections holding the entity type, which may still list the ids
+  static void register(SessionImplementor session, EntityPersister persister, Collection<? extends Serializable> ids,
+                       boolean delete) {
+    SessionFactoryImplementor factory = session.getFactory();
+    String[] spaces = Arrays.stream(persister.getQuerySpaces()).map(String.class::cast).toArray(String[]::new);
+    BulkCacheCleanup cleanup = new BulkCacheCleanup(persister.canWriteToCache() ? persister.getCacheAccessStrategy()
+                                                                                : null, spaces);
+    if (cleanup.access != null)
+      for (Serializable id : ids) {
+        Object key = cleanup.access.generateCacheKey(id, persister, factory, session.getTenantIdentifier());
+        cleanup.keys.add(key);
+        cleanup.locks.add(cleanup.access.lockItem(session, key, null));
+        cleanup.access.remove(session, key);  // keeps a read-write lock in place
+      }
+    if (delete)
+      for (CollectionPersister collection : factory.getMetamodel().collectionPersisters().values())
+        if (collection.getElementType().getReturnedClass() == persister.getMappedClass())
+          cleanup.collectionRoles.add(collection.getRole());
+    cleanup.collectionRoles.forEach(factory.getCache()::evictCollectionData);
+    factory.getCache().getTimestampsCache().preInvalidate(spaces, session);
+    session.getActionQueue().registerProcess(cleanup);
+  }
+
+
+  @Override
+  public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+    SessionFactoryImplementor factory = session.getFactory();
+    for (int i = 0; i < keys.size(); ++i)
+      access.unlockItem(session, keys.get(i), locks.get(i));
+    collectionRoles.forEach(factory.getCache()::evictCollectionData);
+    factory.getCache().getTimestampsCache().invalidate(spaces, session);
+  }
+
+}
@@ -0,0 +1,234 @@
+package study.datajpa.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.BaseEntity;
+import study.datajpa.entity.BaseTimeEntity;
+import study.datajpa.support.AuditClock;
+import study.datajpa.support.CachedAuditor;
+import study.datajpa.support.ChangeEventOutbox;
+import study.datajpa.support.EntityChange;
+import study.datajpa.support.EntityChangeDispatcher;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+// Set-based update/delete of the rows matching a Specification, in id-ordered chunks: select and lock
+// ("for update") the next chunk of ids, then one "... where id in (...)" statement for it, so no other
+// transaction can change a row between matching it and writing it. Without a surrounding transaction
+// each chunk commits on its own, so row locks are held for one chunk only.
+// Instead of clearing everything, only the affected ids are detached and evicted from the second-level
+// cache (see BulkCacheCleanup); the statement goes through Hibernate's JDBC coordinator, so statement
+// inspectors still see it.
+// Audited entities get lastModifiedDate/lastModifiedBy set as AuditListener would, unless assigned here.
+// Each chunk's ids are reported to EntityChangeDispatcher and recorded in the ChangeEventOutbox, as no
+// entity events fire for them.
+// Entities must be mapped to a single table with a Long id.
+@Component
+public class BulkOperationTemplate {
+
+  @PersistenceContext
+  private EntityManager em;
+
+  private final TransactionTemplate transactionTemplate;
+  private final AuditClock clock;
+  private final CachedAuditor auditor;
+  private final EntityChangeDispatcher dispatcher;
+  private final ChangeEventOutbox outbox;
+  private final int chunkSize;
+
+
+  public BulkOperationTemplate(PlatformTransactionManager transactionManager, AuditClock clock, CachedAuditor auditor,
+                               EntityChangeDispatcher dispatcher, ChangeEventOutbox outbox,
+                               @Value("${repository.bulk.chunk-size:1000}") int chunkSize) {
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.clock = clock;
+    this.auditor = auditor;
+    this.dispatcher = dispatcher;
+    this.outbox = outbox;
+    this.chunkSize = chunkSize;
+  }
+
+
+  public <T> int update(Class<T> type, Specification<T> spec, BulkUpdate<T> update) {
+    if (update.getAssignments().isEmpty())
+      throw new IllegalArgumentException("Nothing to update");
+    List<BulkUpdate.Assignment> assignments = new ArrayList<>(update.getAssignments());
+    if (BaseTimeEntity.class.isAssignableFrom(type))
+      audit(assignments, "lastModifiedDate", clock.now());
+    if (BaseEntity.class.isAssignableFrom(type))
+      audit(assignments, "lastModifiedBy", auditor.current());
+    return execute(type, spec, false, persister -> {
+      List<Type> types = new ArrayList<>();
+      List<Object> values = new ArrayList<>();
+      String set = assignments.stream().map(a -> {
+        Type propertyType = persister.getPropertyType(a.getProperty());
+        if (propertyType.isAssociationType())
+          throw new IllegalArgumentException("Cannot bulk update association " + a.getProperty());
+        if (persister.getPropertyColumnNames(a.getProperty()).length != 1)
+          throw new IllegalArgumentException("Cannot bulk update multi-column property " + a.getProperty());
+        String column = persister.getPropertyColumnNames(a.getProperty())[0];
+        types.add(propertyType);
+        values.add(a.getValue());
+        return a.isIncrement() ? column + " = " + column + " + ?" : column + " = ?";
+      }).collect(Collectors.joining(", "));
+      if (persister.isVersioned()) {  // so concurrent optimistic writers see the change
+        String version = persister.getPropertyColumnNames(persister.getVersionProperty())[0];
+        set += ", " + version + " = " + version + " + 1";
+      }
+      return new Statement("update " + persister.getTableName() + " set " + set, types, values);
+    });
+  }
+
+
+  public <T> int delete(Class<T> type, Specification<T> spec) {
+    return execute(type, spec, true,
+                   persister -> new Statement("delete from " + persister.getTableName(), Collections.emptyList(),
+                                              Collections.emptyList()));
+  }
+
+
+  private static void audit(List<BulkUpdate.Assignment> assignments, String property, Object value) {
+    if (assignments.stream().noneMatch(a -> a.getProperty().equals(property)))
+      assignments.add(new BulkUpdate.Assignment(property, value, false));
+  }
+
+
+  private <T> int execute(Class<T> type, Specification<T> spec, boolean delete, StatementBuilder builder) {
+    int rows = 0;
+    Long lastId = null;
+    while (true) {
+      Long after = lastId;
+      Chunk chunk = transactionTemplate.execute(status -> executeChunk(type, spec, delete, builder, after));
+      rows += chunk.rows;
+      if (chunk.size < chunkSize)
+        return rows;
+      lastId = chunk.lastId;
+    }
+  }
+
+
+  private <T> Chunk executeChunk(Class<T> type, Specification<T> spec, boolean delete, StatementBuilder builder,
+                                 Long after) {
+    SessionImplementor session = em.unwrap(SessionImplementor.class);
+    SessionFactoryImplementor factory = session.getFactory();
+    if (!(factory.getMetamodel().entityPersister(type) instanceof SingleTableEntityPersister))
+      throw new IllegalArgumentException(type.getSimpleName() + " is not mapped to a single table");
+    SingleTableEntityPersister persister = (SingleTableEntityPersister) factory.getMetamodel().entityPersister(type);
+
+    em.flush();  // pending changes must reach the database before the rows are rewritten underneath them
+    List<Long> ids = nextIds(type, persister.getIdentifierPropertyName(), spec, after);
+    if (ids.isEmpty())
+      return new Chunk(0, 0, null);
+
+    Statement statement = builder.build(persister);
+    String byId = persister.getIdentifierColumnNames()[0] +
+                  " in (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+    String sql = statement.sql + " where " + byId;
+    List<Type> idTypes = Collections.nCopies(ids.size(), persister.getIdentifierType());
+    List<Type> types = new ArrayList<>(statement.types);
+    types.addAll(idTypes);
+    List<Object> parameters = new ArrayList<>(statement.values);
+    parameters.addAll(ids);
+    BulkCacheCleanup.register(session, persister, ids, delete);
+    if (delete)  // while the rows are still there
+      outbox.recordWhere(type, EntityChange.Kind.DELETE, byId, idTypes, ids);
+    int rows = executeUpdate(session, sql, types, parameters);
+    if (!delete)
+      outbox.recordWhere(type, EntityChange.Kind.UPDATE, byId, idTypes, ids);
+
+    for (Long id : ids) {
+      Object managed = session.getPersistenceContextInternal().getEntity(session.generateEntityKey(id, persister));
+      if (managed != null)
+        em.detach(managed);
+    }
+    dispatcher.bulkChanged(type, ids);
+
+    return new Chunk(rows, ids.size(), ids.get(ids.size() - 1));
+  }
+
+
+  private <T> List<Long> nextIds(Class<T> type, String idProperty, Specification<T> spec, Long after) {
+    CriteriaBuilder builder = em.getCriteriaBuilder();
+    CriteriaQuery<Long> query = builder.createQuery(Long.class);
+    Root<T> root = query.from(type);
+    Path<Long> id = root.get(idProperty);
+
+    List<Predicate> where = new ArrayList<>();
+    Predicate predicate = spec == null ? null : spec.toPredicate(root, query, builder);
+    if (predicate != null)
+      where.add(predicate);
+    if (after != null)
+      where.add(builder.greaterThan(id, after));
+    query.select(id)
+         .where(where.toArray(new Predicate[0]))
+         .orderBy(builder.asc(id));
+    return em.createQuery(query)
+             .setMaxResults(chunkSize)
+             .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+             .getResultList();
+  }
+
+
+  // bound through the mapped types, as UpsertTemplate does
+  private static int executeUpdate(SessionImplementor session, String sql, List<Type> types, List<Object> parameters) {
+    JdbcCoordinator jdbc = session.getJdbcCoordinator();
+    PreparedStatement ps = jdbc.getStatementPreparer().prepareStatement(sql);
+    try {
+      for (int i = 0; i < parameters.size(); ++i)
+        types.get(i).nullSafeSet(ps, parameters.get(i), i + 1, session);  // single-column, checked in update()
+      return jdbc.getResultSetReturn().executeUpdate(ps);
+    }
+    catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "bulk operation failed", sql);
+    }
+    finally {
+      jdbc.getLogicalConnection().getResourceRegistry().release(ps);
+      jdbc.afterStatementExecution();
+    }
+  }
+
+
+  private interface StatementBuilder {
+    Statement build(SingleTableEntityPersister persister);
+  }
+
+
+  @RequiredArgsConstructor
+  private static class Statement {
+    private final String sql;
+    private final List<Type> types;
+    private final List<Object> values;
+  }
+
+
+  @RequiredArgsConstructor
+  private static class Chunk {
+    private final int rows;
+    private final int size;
+    private final Long lastId;
+  }
+
+}
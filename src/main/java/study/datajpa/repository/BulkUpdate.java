@@ -0,0 +1,48 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+// Column assignments for BulkOperationTemplate.update, e.g. BulkUpdate.<Member>create().increment("age", 1).
+// Only basic properties can be assigned; associations are rejected when the statement is built.
+public class BulkUpdate<T> {
+
+  private final List<Assignment> assignments = new ArrayList<>();
+
+
+  public static <T> BulkUpdate<T> create() {
+    return new BulkUpdate<>();
+  }
+
+
+  public BulkUpdate<T> set(String property, Object value) {
+    assignments.add(new Assignment(property, value, false));
+    return this;
+  }
+
+
+  public BulkUpdate<T> increment(String property, Number delta) {
+    assignments.add(new Assignment(property, delta, true));
+    return this;
+  }
+
+
+  List<Assignment> getAssignments() {
+    return Collections.unmodifiableList(assignments);
+  }
+
+
+  @Getter
+  @RequiredArgsConstructor
+  static class Assignment {
+    private final String property;
+    private final Object value;
+    private final boolean increment;
+  }
+
+}
@@ -0,0 +1,11 @@
+package study.datajpa.repository;
+
+
+public enum CountMode {
+
+  EXACT,      // count query on every page request
+  CACHED,     // reuse a total per (query, parameters) until its TTL expires or the table is written
+  ESTIMATED,  // table statistics for whole-table counts, otherwise the last known total
+  DEFERRED    // count query runs in parallel with the content query
+
+}
@@ -0,0 +1,37 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+
+@Getter
+public class CountQuery {
+
+  private final String name;
+  private final List<?> params;
+  private final String table;        // writes to this table invalidate cached totals
+  private final boolean wholeTable;  // total can be estimated from table statistics
+  private final LongSupplier counter;
+
+
+  private CountQuery(String name, List<?> params, String table, boolean wholeTable, LongSupplier counter) {
+    this.name = name;
+    this.params = params;
+    this.table = table;
+    this.wholeTable = wholeTable;
+    this.counter = counter;
+  }
+
+
+  public static CountQuery of(String name, List<?> params, String table, LongSupplier counter) {
+    return new CountQuery(name, params, table, false, counter);
+  }
+
+
+  public static CountQuery wholeTable(String name, String table, LongSupplier counter) {
+    return new CountQuery(name, List.of(), table, true, counter);
+  }
+
+}
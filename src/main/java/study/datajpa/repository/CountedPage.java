@@ -0,0 +1,33 @@
+package study.datajpa.repository;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+
+public class CountedPage<T> extends PageImpl<T> {
+
+  private final boolean totalExact;
+
+
+  public CountedPage(List<T> content, Pageable pageable, long total, boolean totalExact) {
+    super(content, pageable, total);
+    this.totalExact = totalExact;
+  }
+
+
+  public boolean isTotalExact() {
+    return totalExact;
+  }
+
+
+  @Override
+  public <U> CountedPage<U> map(Function<? super T, ? extends U> converter) {
+    List<U> converted = getContent().stream().map(converter).collect(Collectors.toList());
+    return new CountedPage<>(converted, getPageable(), getTotalElements(), totalExact);
+  }
+
+}
@@ -0,0 +1,264 @@
+package study.datajpa.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.jpa.repository.query.EscapeCharacter;
+import org.springframework.data.support.ExampleMatcherAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+
+// Compiles an Example into a StructuredSpecification, so SpecificationPlanCache keys the JPQL on the
+// probe's shape (which properties are set and how each is matched) and only binds values per call.
+// The field accessors for a probe type and matcher are resolved once over the JPA metamodel; to-one
+// associations are walked with inner joins, as Spring Data's QueryByExamplePredicateBuilder does.
+// Substring matches on a property ExampleSearchIndex covers also get "id in (candidates)".
+@Component
+public class ExampleCompiler {
+
+  private static final Set<ExampleMatcher.StringMatcher> SUBSTRING_MATCHERS = Set.of(
+      ExampleMatcher.StringMatcher.CONTAINING, ExampleMatcher.StringMatcher.STARTING,
+      ExampleMatcher.StringMatcher.ENDING);
+
+  @PersistenceContext
+  private EntityManager em;
+
+  private final ExampleSearchIndex index;
+  private final int maxCandidates;
+  private final Cache<PlanKey, Optional<Plan>> plans;
+
+
+  public ExampleCompiler(ExampleSearchIndex index,
+                         @Value("${repository.example.plan-cache-size:500}") long maxSize,
+                         @Value("${repository.example.max-candidates:1000}") int maxCandidates,
+                         MeterRegistry meterRegistry) {
+    this.index = index;
+    this.maxCandidates = maxCandidates;
+    this.plans = Caffeine.newBuilder()
+                         .maximumSize(maxSize)
+                         .recordStats()
+                         .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, plans, "example.plans");
+  }
+
+
+  // null for what is not compiled (value transformers, regex, included nulls, embeddables);
+  // callers then fall back to the Criteria API
+  public <T> StructuredSpecification<T> compile(Example<T> example) {
+    PlanKey key = new PlanKey(example.getProbeType(), example.getMatcher());
+    Plan plan = plans.get(key, k -> Optional.ofNullable(plan(k.type, k.matcher))).orElse(null);
+    if (plan == null)
+      return null;
+
+    T probe = example.getProbe();
+    boolean flushed = false;
+    List<StructuredSpecification<T>> joined = new ArrayList<>();
+    List<StructuredSpecification<T>> conditions = new ArrayList<>();
+    for (Property property : plan.properties) {
+      Object value = property.get(probe);
+      if (value == null)
+        continue;
+      if (property.association) {  // an inner join in Spring Data, required under matchingAny() too
+        joined.add(StructuredSpecification.isNotNull(property.path));
+        continue;
+      }
+      if (property.indexed && !flushed) {  // the index learns about pending changes when they are flushed
+        flush();
+        flushed = true;
+      }
+      conditions.add(condition(property, value));
+    }
+    joined.add(new StructuredSpecification.Composite<>(plan.allMatching ? " and " : " or ", conditions));
+    return new StructuredSpecification.Composite<>(" and ", joined);
+  }
+
+
+  private <T> StructuredSpecification<T> condition(Property property, Object value) {
+    if (!(value instanceof String))
+      return StructuredSpecification.equal(property.path, value);
+
+    String string = (String) value;
+    String escaped = EscapeCharacter.DEFAULT.escape(string);
+    switch (property.matcher) {
+      case CONTAINING:
+        return narrowed(property, string, StructuredSpecification.like(property.path, "%" + escaped + "%", property.ignoreCase));
+      case STARTING:
+        return narrowed(property, string, StructuredSpecification.like(property.path, escaped + "%", property.ignoreCase));
+      case ENDING:
+        return narrowed(property, string, StructuredSpecification.like(property.path, "%" + escaped, property.ignoreCase));
+      default:
+        return property.ignoreCase ? StructuredSpecification.equalIgnoringCase(property.path, string)
+                                   : StructuredSpecification.equal(property.path, string);
+    }
+  }
+
+
+  private <T> StructuredSpecification<T> narrowed(Property property, String needle, StructuredSpecification<T> like) {
+    if (!property.indexed)
+      return like;
+    List<Long> candidates = Optional.ofNullable(index.candidates(property.owner, property.name, needle))
+                                    .map(ArrayList::new)
+                                    .orElse(null);
+    if (candidates == null || candidates.size() > maxCandidates)
+      return like;
+    StructuredSpecification<T> in = candidates.isEmpty() ? StructuredSpecification.never()
+                                                         : StructuredSpecification.in(property.idPath, candidates);
+    return new StructuredSpecification.Composite<>(" and ", List.of(in, like));
+  }
+
+
+  private void flush() {
+    if (em.isJoinedToTransaction() && em.getFlushMode() == FlushModeType.AUTO)
+      em.flush();
+  }
+
+
+  private Plan plan(Class<?> type, ExampleMatcher matcher) {
+    if (matcher.getNullHandler() == ExampleMatcher.NullHandler.INCLUDE)
+      return null;
+    List<Property> properties = new ArrayList<>();
+    ExampleMatcherAccessor accessor = new ExampleMatcherAccessor(matcher);
+    if (!collect(em.getMetamodel().managedType(type), "", List.of(), accessor, properties))
+      return null;
+    return new Plan(properties, matcher.isAllMatching());
+  }
+
+
+  private boolean collect(ManagedType<?> type, String prefix, List<MethodHandle> chain,
+                          ExampleMatcherAccessor accessor, List<Property> properties) {
+    for (SingularAttribute<?, ?> attribute : type.getSingularAttributes()) {
+      String path = prefix + attribute.getName();
+      if (accessor.isIgnoredPath(path))
+        continue;
+      List<MethodHandle> getters = new ArrayList<>(chain);
+      getters.add(getter(type.getJavaType(), attribute.getName()));
+
+      switch (attribute.getPersistentAttributeType()) {
+        case BASIC:
+          if (!(accessor.getValueTransformerForPath(path) instanceof ExampleMatcher.NoOpPropertyValueTransformer))
+            return false;
+          ExampleMatcher.StringMatcher matcher = accessor.getStringMatcherForPath(path);
+          if (attribute.getJavaType() == String.class && matcher == ExampleMatcher.StringMatcher.REGEX)
+            return false;
+          String idPath = null;
+          if (SUBSTRING_MATCHERS.contains(matcher) && index.covers(type.getJavaType(), attribute.getName()))
+            idPath = prefix + idAttribute(type);
+          properties.add(new Property(path, getters, false, matcher, accessor.isIgnoreCaseForPath(path),
+                                      type.getJavaType(), attribute.getName(), idPath));
+          break;
+        case MANY_TO_ONE:
+        case ONE_TO_ONE:
+          properties.add(new Property(path, getters, true, null, false, type.getJavaType(), attribute.getName(), null));
+          if (!collect(em.getMetamodel().managedType(attribute.getJavaType()), path + ".", getters, accessor, properties))
+            return false;
+          break;
+        default:
+          return false;
+      }
+    }
+    return true;
+  }
+
+
+  private static String idAttribute(ManagedType<?> type) {
+    IdentifiableType<?> identifiable = (IdentifiableType<?>) type;
+    return identifiable.getId(identifiable.getIdType().getJavaType()).getName();
+  }
+
+
+  private static MethodHandle getter(Class<?> type, String name) {
+    Field field = ReflectionUtils.findField(type, name);
+    if (field == null)
+      throw new IllegalStateException("No field " + name + " on " + type.getName());
+    ReflectionUtils.makeAccessible(field);
+    try {
+      return MethodHandles.lookup().unreflectGetter(field);
+    }
+    catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  private static class PlanKey {
+    private final Class<?> type;
+    private final ExampleMatcher matcher;
+  }
+
+
+  @RequiredArgsConstructor
+  private static class Plan {
+    private final List<Property> properties;
+    private final boolean allMatching;
+  }
+
+
+  private static class Property {
+
+    private final String path;
+    private final List<MethodHandle> getters;
+    private final boolean association;
+    private final ExampleMatcher.StringMatcher matcher;
+    private final boolean ignoreCase;
+    private final Class<?> owner;
+    private final String name;
+    private final String idPath;
+    private final boolean indexed;
+
+
+    private Property(String path, List<MethodHandle> getters, boolean association, ExampleMatcher.StringMatcher matcher,
+                     boolean ignoreCase, Class<?> owner, String name, String idPath) {
+      this.path = path;
+      this.getters = getters;
+      this.association = association;
+      this.matcher = matcher;
+      this.ignoreCase = ignoreCase;
+      this.owner = owner;
+      this.name = name;
+      this.idPath = idPath;
+      this.indexed = idPath != null;
+    }
+
+
+    // null when the property, or an association on the way to it, is not set on the probe
+    private Object get(Object probe) {
+      Object value = probe;
+      try {
+        for (MethodHandle getter : getters) {
+          value = getter.invoke(value);
+          if (value == null)
+            return null;
+        }
+      }
+      catch (Throwable e) {
+        throw new IllegalStateException("Cannot read " + path + " from the probe", e);
+      }
+      return value;
+    }
+  }
+
+}
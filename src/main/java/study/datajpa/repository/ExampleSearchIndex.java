@@ -0,0 +1,150 @@
+package study.datajpa.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+import study.datajpa.support.EntityChange;
+import study.datajpa.support.EntityChangeObserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+
+// In-process trigram indexes over Member.username and Team.name, loaded with one scan on first use and
+// kept current from entity changes (see EntityChangeDispatcher). ExampleCompiler adds "id in (candidates)"
+// next to a contains/starts-with/ends-with LIKE on these properties; the LIKE stays, so a superset is enough.
+// Rows rewritten by bulk statements are candidates for every search until they are read again.
+// Only changes made through this process reach the index, so a row another instance writes would be
+// missing from the candidates and from the results; narrowing is off unless repository.example.single-writer
+// says this process is the only one writing these tables.
+@Component
+public class ExampleSearchIndex implements EntityChangeObserver {
+
+  private final NamedParameterJdbcTemplate jdbc;
+  private final boolean singleWriter;
+  private final Map<Class<?>, Indexed<?>> indexes = Map.of(
+      Member.class, new Indexed<>("username", Member::getUsername, "member", "member_id", "username"),
+      Team.class, new Indexed<>("name", Team::getName, "team", "team_id", "name"));
+
+
+  public ExampleSearchIndex(NamedParameterJdbcTemplate jdbc,
+                            @Value("${repository.example.single-writer:false}") boolean singleWriter) {
+    this.jdbc = jdbc;
+    this.singleWriter = singleWriter;
+  }
+
+
+  public boolean covers(Class<?> type, String property) {
+    if (!singleWriter)
+      return false;
+    Indexed<?> indexed = indexes.get(type);
+    return indexed != null && indexed.property.equals(property);
+  }
+
+
+  // ids of the rows whose property may contain the needle, or null when the index can't narrow them
+  public Set<Long> candidates(Class<?> type, String property, String needle) {
+    if (!covers(type, property))
+      return null;
+    Indexed<?> indexed = indexes.get(type);
+    indexed.load(jdbc);
+    return indexed.index.candidates(needle);
+  }
+
+
+  @Override
+  public void changed(EntityChange change) {
+    Indexed<?> indexed = singleWriter ? indexes.get(change.getType()) : null;
+    if (indexed != null && change.getKind() != EntityChange.Kind.DELETE)
+      indexed.index.add((Long) change.getId(), indexed.value(change.getEntity()));
+  }
+
+
+  @Override
+  public void committed(EntityChange change) {
+    Indexed<?> indexed = singleWriter ? indexes.get(change.getType()) : null;
+    if (indexed != null)
+      indexed.index.commit((Long) change.getId(),
+                           change.getKind() == EntityChange.Kind.DELETE ? null : indexed.value(change.getEntity()));
+  }
+
+
+  @Override
+  public void bulkChanged(Class<?> type, Collection<Long> ids) {
+    Indexed<?> indexed = singleWriter ? indexes.get(type) : null;
+    if (indexed == null)
+      return;
+    indexed.index.markUnknown(ids);
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      indexed.stale.addAll(ids);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        indexed.stale.addAll(ids);  // read back by the next search, once the rows are final
+      }
+    });
+  }
+
+
+  @Override
+  public void bulkUpdating(Class<?> type, String where, List<Type> types, List<?> parameters) {
+    Indexed<?> indexed = singleWriter ? indexes.get(type) : null;
+    if (indexed != null)
+      bulkChanged(type, jdbc.getJdbcTemplate().queryForList("select " + indexed.idColumn + " from " + indexed.table +
+                                                            " where " + where, Long.class, parameters.toArray()));
+  }
+
+
+  @RequiredArgsConstructor
+  private static class Indexed<T> {
+
+    private final String property;
+    private final Function<T, String> accessor;
+    private final String table;
+    private final String idColumn;
+    private final String column;
+    private final TrigramIndex index = new TrigramIndex();
+    private final Set<Long> stale = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded;
+
+
+    @SuppressWarnings("unchecked")
+    private String value(Object entity) {
+      return accessor.apply((T) entity);
+    }
+
+
+    private void load(NamedParameterJdbcTemplate jdbc) {
+      if (!loaded) {
+        synchronized (this) {
+          if (!loaded) {
+            jdbc.query("select " + idColumn + ", " + column + " from " + table,
+                       rs -> { index.load(rs.getLong(1), rs.getString(2)); });
+            loaded = true;
+          }
+        }
+      }
+      if (stale.isEmpty())
+        return;
+      List<Long> ids = new ArrayList<>(stale);
+      stale.removeAll(ids);
+      jdbc.query("select " + idColumn + ", " + column + " from " + table + " where " + idColumn + " in (:ids)",
+                 Map.of("ids", ids), rs -> { index.load(rs.getLong(1), rs.getString(2)); });
+      ids.forEach(index::forget);  // deleted rows are not read back
+    }
+  }
+
+}
@@ -4,5 +4,5 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import study.datajpa.entity.Item;
 
 
-public interface ItemRepository extends JpaRepository<Item, String> {
+public interface ItemRepository extends JpaRepository<Item, String>, ItemRepositoryCustom {
 }
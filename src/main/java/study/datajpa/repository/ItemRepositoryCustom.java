@@ -0,0 +1,18 @@
+package study.datajpa.repository;
+
+import study.datajpa.entity.Item;
+
+import java.util.List;
+
+
+public interface ItemRepositoryCustom {
+
+  // one round trip per chunk, no select-before-insert; existing items keep their createdDate
+  BatchInsertSummary upsertAll(Iterable<Item> items);
+
+
+  default void upsert(Item item) {
+    upsertAll(List.of(item));
+  }
+
+}
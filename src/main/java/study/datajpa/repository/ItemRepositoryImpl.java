@@ -0,0 +1,18 @@
+package study.datajpa.repository;
+
+import lombok.RequiredArgsConstructor;
+import study.datajpa.entity.Item;
+
+
+@RequiredArgsConstructor
+public class ItemRepositoryImpl implements ItemRepositoryCustom {
+
+  private final UpsertTemplate upsertTemplate;
+
+
+  @Override
+  public BatchInsertSummary upsertAll(Iterable<Item> items) {
+    return upsertTemplate.upsertAll(Item.class, items);
+  }
+
+}
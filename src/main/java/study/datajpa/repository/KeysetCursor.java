@@ -0,0 +1,52 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+
+@Getter
+public class KeysetCursor {  // (sort key, member_id) of the last row, as an opaque url-safe token
+
+  private static final String SEPARATOR = "|";
+
+  private final String property;
+  private final Sort.Direction direction;
+  private final Long lastId;
+  private final String lastValue;  // null when the sort key of the last row was null
+
+
+  public KeysetCursor(String property, Sort.Direction direction, Long lastId, String lastValue) {
+    this.property = property;
+    this.direction = direction;
+    this.lastId = lastId;
+    this.lastValue = lastValue;
+  }
+
+
+  public String encode() {
+    String raw = property + SEPARATOR + direction + SEPARATOR + lastId;
+    if (lastValue != null)
+      raw += SEPARATOR + lastValue;
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+
+  public static KeysetCursor decode(String token) {
+    try {
+      String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+      String[] parts = raw.split("\\" + SEPARATOR, 4);
+      if (parts.length >= 3) {
+        String lastValue = parts.length == 4 ? parts[3] : null;
+        return new KeysetCursor(parts[0], Sort.Direction.fromString(parts[1]), Long.valueOf(parts[2]), lastValue);
+      }
+    }
+    catch (IllegalArgumentException e) {  // NumberFormatException, bad base64
+      throw new IllegalArgumentException("Malformed continuation token: " + token, e);
+    }
+    throw new IllegalArgumentException("Malformed continuation token: " + token);
+  }
+
+}
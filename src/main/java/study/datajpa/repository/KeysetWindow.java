@@ -0,0 +1,33 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+
+@Getter
+public class KeysetWindow<T> {
+
+  private final List<T> content;
+  private final String continuation;  // null on the last window
+
+
+  public KeysetWindow(List<T> content, String continuation) {
+    this.content = content;
+    this.continuation = continuation;
+  }
+
+
+  public boolean hasNext() {
+    return continuation != null;
+  }
+
+
+  public <U> KeysetWindow<U> map(Function<? super T, ? extends U> converter) {
+    List<U> converted = content.stream().map(converter).collect(Collectors.toList());
+    return new KeysetWindow<>(converted, continuation);
+  }
+
+}
@@ -0,0 +1,349 @@
+package study.datajpa.repository;
+
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+import study.datajpa.support.EntityChange;
+import study.datajpa.support.EntityChangeObserver;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IntSummaryStatistics;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+
+// Optional (repository.column-store.enabled) in-memory copy of Member as primitive columns: age, team id,
+// version and a dictionary-encoded username, one array each, for counts and group-bys on age and team
+// that would otherwise scan the member table. Scans of at least parallel-threshold rows run on the
+// common fork-join pool.
+// It holds committed state only: loaded by one scan on first use, then kept current from committed entity
+// changes (see EntityChangeDispatcher) and, for bulk statements, by re-reading the affected rows before
+// the next query. The scan and the reloads run in a read-only transaction of their own, so a caller's
+// flushed but uncommitted rows never get in. A change older than the row's version is ignored, whatever
+// order commits are reported in; deleted ids keep their last version as a tombstone, so an update
+// reported after the delete can't bring the row back. Ids are never reused, so tombstones are kept for the life of the store.
+@Component
+@ConditionalOnProperty(name = "repository.column-store.enabled", havingValue = "true")
+public class MemberColumnStore implements EntityChangeObserver {
+
+  private static final long NO_TEAM = 0;  // ids come from sequences starting at 1
+  private static final int NO_USERNAME = -1;
+  private static final int RELOAD_CHUNK = 1000;
+  private static final int MAX_DENSE_AGES = 1024;  // wider age ranges are counted in a map, not an array
+  private static final String SELECT = "select member_id, version, age, team_id, username from member";
+
+  private final NamedParameterJdbcTemplate jdbc;
+  private final TransactionTemplate committedReads;
+  private final int parallelThreshold;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Set<Long> stale = ConcurrentHashMap.newKeySet();
+  private volatile boolean loaded;
+
+  // guarded by lock
+  private final Map<Long, Integer> rows = new HashMap<>();
+  private final Map<Long, Long> tombstones = new HashMap<>();  // deleted id -> version it was deleted at
+  private final Map<String, Integer> usernameCodes = new HashMap<>();
+  private final List<String> usernames = new ArrayList<>();
+  private long[] ids = new long[1024];
+  private long[] versions = new long[1024];
+  private int[] ages = new int[1024];
+  private long[] teamIds = new long[1024];
+  private int[] usernameColumn = new int[1024];
+  private int size;
+
+
+  public MemberColumnStore(NamedParameterJdbcTemplate jdbc, PlatformTransactionManager transactionManager,
+                           @Value("${repository.column-store.parallel-threshold:65536}") int parallelThreshold) {
+    this.jdbc = jdbc;
+    this.committedReads = new TransactionTemplate(transactionManager);
+    committedReads.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    committedReads.setReadOnly(true);
+    this.parallelThreshold = parallelThreshold;
+  }
+
+
+  // ages inclusive; teamId null for any team
+  public long count(int minAge, int maxAge, Long teamId) {
+    return read(view -> view.rows(view.filter(minAge, maxAge, teamId)).count());
+  }
+
+
+  public Map<Integer, Long> countByAge(Long teamId) {
+    return read(view -> {
+      IntPredicate filter = view.filter(Integer.MIN_VALUE, Integer.MAX_VALUE, teamId);
+      IntSummaryStatistics range = view.rows(filter).map(r -> view.ages[r]).summaryStatistics();
+      if (range.getCount() == 0)
+        return Map.of();
+      int min = range.getMin();
+      long span = (long) range.getMax() - min + 1;  // an int overflows for extreme ages
+      if (span > MAX_DENSE_AGES) {
+        Map<Integer, Long> counts =
+            view.rows(filter).collect(HashMap<Integer, Long>::new, (c, r) -> c.merge(view.ages[r], 1L, Long::sum),
+                                      (x, y) -> y.forEach((age, count) -> x.merge(age, count, Long::sum)));
+        Map<Integer, Long> result = new LinkedHashMap<>();
+        counts.keySet().stream().sorted().forEach(age -> result.put(age, counts.get(age)));
+        return result;
+      }
+      int width = (int) span;
+      long[] counts = view.rows(filter).collect(() -> new long[width], (c, r) -> ++c[view.ages[r] - min],
+                                                MemberColumnStore::add);
+      Map<Integer, Long> result = new LinkedHashMap<>();
+      for (int i = 0; i < width; ++i)
+        if (counts[i] > 0)
+          result.put(min + i, counts[i]);
+      return result;
+    });
+  }
+
+
+  // members without a team are not counted
+  public Map<Long, Long> countByTeam(int minAge, int maxAge) {
+    return read(view -> {
+      IntPredicate filter = view.filter(minAge, maxAge, null);
+      return view.rows(r -> view.teamIds[r] != NO_TEAM && filter.test(r))
+                 .collect(HashMap<Long, Long>::new, (c, r) -> c.merge(view.teamIds[r], 1L, Long::sum),
+                          (a, b) -> b.forEach((team, count) -> a.merge(team, count, Long::sum)));
+    });
+  }
+
+
+  public List<String> usernames(int minAge, int maxAge, Long teamId) {
+    return read(view -> view.rows(view.filter(minAge, maxAge, teamId))
+                            .map(r -> view.usernameColumn[r])
+                            .filter(code -> code != NO_USERNAME)
+                            .mapToObj(view.usernames::get)
+                            .collect(Collectors.toList()));
+  }
+
+
+  @Override
+  public void committed(EntityChange change) {
+    if (change.getType() != Member.class)
+      return;
+    Member member = (Member) change.getEntity();
+    lock.writeLock().lock();
+    try {
+      if (!loaded)  // the first scan will read it
+        return;
+      if (change.getKind() == EntityChange.Kind.DELETE)
+        remove(member.getId(), version(member.getVersion()));
+      else
+        put(member.getId(), member.getVersion(), member.getAge(), teamId(member), member.getUsername());
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+  @Override
+  public void bulkChanged(Class<?> type, Collection<Long> changed) {
+    if (type == Member.class)
+      afterCommit(() -> stale.addAll(changed));
+  }
+
+
+  // the ids are read now, in the statement's transaction; the rows after it commits
+  @Override
+  public void bulkUpdating(Class<?> type, String where, List<Type> types, List<?> parameters) {
+    if (type == Member.class)
+      bulkChanged(type, jdbc.getJdbcTemplate().queryForList("select member_id from member where " + where,
+                                                            Long.class, parameters.toArray()));
+  }
+
+
+  private static void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        action.run();
+      }
+    });
+  }
+
+
+  private <R> R read(ViewQuery<R> query) {
+    refresh();
+    lock.readLock().lock();
+    try {
+      return query.apply(new View());
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  private void refresh() {
+    if (loaded && stale.isEmpty())
+      return;
+    lock.writeLock().lock();
+    try {
+      committedReads.executeWithoutResult(status -> loadCommitted());
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+  // under the write lock
+  private void loadCommitted() {
+    if (!loaded) {
+      jdbc.query(SELECT, this::load);
+      stale.clear();
+      loaded = true;
+      return;
+    }
+    List<Long> reload = new ArrayList<>(stale);
+    stale.removeAll(reload);
+    for (int from = 0; from < reload.size(); from += RELOAD_CHUNK) {
+      List<Long> chunk = reload.subList(from, Math.min(from + RELOAD_CHUNK, reload.size()));
+      Set<Long> deleted = new HashSet<>(chunk);
+      jdbc.query(SELECT + " where member_id in (:ids)", Map.of("ids", chunk), rs -> {
+        deleted.remove(rs.getLong(1));
+        load(rs);
+      });
+      deleted.forEach(id -> remove(id, Long.MAX_VALUE));  // gone from the table, nothing may revive it
+    }
+  }
+
+
+  private void load(ResultSet rs) throws SQLException {
+    put(rs.getLong(1), rs.getLong(2), rs.getInt(3), rs.getLong(4), rs.getString(5));  // null team_id reads as 0
+  }
+
+
+  private void put(long id, Long version, int age, long teamId, String username) {
+    long v = version(version);
+    Long deletedAt = tombstones.get(id);
+    if (deletedAt != null && deletedAt >= v)
+      return;
+    Integer row = rows.get(id);
+    if (row == null) {
+      if (size == ids.length)
+        grow();
+      row = size++;
+      rows.put(id, row);
+      ids[row] = id;
+    }
+    else if (versions[row] > v) {
+      return;
+    }
+    versions[row] = v;
+    ages[row] = age;
+    teamIds[row] = teamId;
+    usernameColumn[row] = username == null ? NO_USERNAME : usernameCodes.computeIfAbsent(username, u -> {
+      usernames.add(u);
+      return usernames.size() - 1;
+    });
+  }
+
+
+  // the last row moves into the hole, so the columns stay dense
+  private void remove(long id, long version) {
+    tombstones.merge(id, version, Math::max);
+    Integer row = rows.remove(id);
+    if (row == null)
+      return;
+    int last = --size;
+    if (row != last) {
+      ids[row] = ids[last];
+      versions[row] = versions[last];
+      ages[row] = ages[last];
+      teamIds[row] = teamIds[last];
+      usernameColumn[row] = usernameColumn[last];
+      rows.put(ids[row], row);
+    }
+  }
+
+
+  private static long version(Long version) {
+    return version == null ? 0 : version;
+  }
+
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    versions = Arrays.copyOf(versions, capacity);
+    ages = Arrays.copyOf(ages, capacity);
+    teamIds = Arrays.copyOf(teamIds, capacity);
+    usernameColumn = Arrays.copyOf(usernameColumn, capacity);
+  }
+
+
+  private static long teamId(Member member) {
+    Team team = member.getTeam();
+    if (team == null)
+      return NO_TEAM;
+    if (team instanceof HibernateProxy)  // without initializing it, the session may be gone
+      return (Long) ((HibernateProxy) team).getHibernateLazyInitializer().getIdentifier();
+    return team.getId();
+  }
+
+
+  private static void add(long[] into, long[] counts) {
+    for (int i = 0; i < into.length; ++i)
+      into[i] += counts[i];
+  }
+
+
+  private interface ViewQuery<R> {
+    R apply(View view);
+  }
+
+
+  // the columns as of the read lock, so scanning threads need no lock of their own
+  private class View {
+
+    private final int rowCount = size;
+    private final int[] ages = MemberColumnStore.this.ages;
+    private final long[] teamIds = MemberColumnStore.this.teamIds;
+    private final int[] usernameColumn = MemberColumnStore.this.usernameColumn;
+    private final List<String> usernames = MemberColumnStore.this.usernames;
+
+
+    private IntPredicate filter(int minAge, int maxAge, Long teamId) {
+      if (teamId == null)
+        return r -> ages[r] >= minAge && ages[r] <= maxAge;
+      long team = teamId;
+      return r -> teamIds[r] == team && ages[r] >= minAge && ages[r] <= maxAge;
+    }
+
+
+    private IntStream rows(IntPredicate filter) {
+      IntStream rows = IntStream.range(0, rowCount);
+      return (rowCount >= parallelThreshold ? rows.parallel() : rows).filter(filter);
+    }
+  }
+
+}
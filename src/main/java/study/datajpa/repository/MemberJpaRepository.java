@@ -1,10 +1,16 @@
 package study.datajpa.repository;
 
+import org.hibernate.type.StandardBasicTypes;
 import org.springframework.stereotype.Repository;
 import study.datajpa.entity.Member;
+import study.datajpa.support.AuditClock;
+import study.datajpa.support.CachedAuditor;
+import study.datajpa.support.EntityChangeDispatcher;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,9 +18,22 @@ import java.util.Optional;
 @Repository
 public class MemberJpaRepository {
 
+  private static final int BULK_CHUNK = 1000;  // ids per statement, below the drivers' parameter limits
+
   @PersistenceContext
   private EntityManager em;
 
+  private final AuditClock clock;
+  private final CachedAuditor auditor;
+  private final EntityChangeDispatcher dispatcher;
+
+
+  public MemberJpaRepository(AuditClock clock, CachedAuditor auditor, EntityChangeDispatcher dispatcher) {
+    this.clock = clock;
+    this.auditor = auditor;
+    this.dispatcher = dispatcher;
+  }
+
 
   public Member save(Member member) {
     em.persist(member);
@@ -83,11 +102,29 @@ public class MemberJpaRepository {
   }
 
 
+  // The matching rows are locked first and updated by id, so a row committed meanwhile by another
+  // transaction is neither updated nor missed by the observers.
   public int bulkAgePlus(int age) {
-    String jpql = "update Member m set m.age = m.age + 1 where m.age >= :age";
-    return em.createQuery(jpql)
-             .setParameter("age", age)
-             .executeUpdate();
+    List<Long> ids = em.createQuery("select m.id from Member m where m.age >= :age order by m.id", Long.class)
+                       .setParameter("age", age)
+                       .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                       .getResultList();
+    String jpql = "update versioned Member m set m.age = m.age + 1," +
+                  " m.lastModifiedDate = :now, m.lastModifiedBy = :auditor" +  // bulk updates skip entity listeners
+                  " where m.id in :ids";
+    int rows = 0;
+    for (int from = 0; from < ids.size(); from += BULK_CHUNK) {
+      List<Long> chunk = ids.subList(from, Math.min(from + BULK_CHUNK, ids.size()));
+      dispatcher.bulkUpdating(Member.class,  // no entity events for a bulk update
+                              "member_id in (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                              Collections.nCopies(chunk.size(), StandardBasicTypes.LONG), chunk);
+      rows += em.createQuery(jpql)
+                .setParameter("now", clock.now())
+                .setParameter("auditor", auditor.current())
+                .setParameter("ids", chunk)
+                .executeUpdate();
+    }
+    return rows;
   }
 
 }
@@ -0,0 +1,184 @@
+package study.datajpa.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import study.datajpa.entity.Member;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+// Coalesces concurrent findById calls for Member outside a transaction: lookups of an id already being
+// loaded wait for that load, and the first lookup of a window waits up to repository.lookup.window for
+// others to join, then loads all of them (at most max-batch) with one multi-load in its own thread:
+// the second-level cache first, one "where id in (...)" for the rest.
+// The load keeps the property values, and every caller gets a Member of its own built from them, so
+// callers can't see each other's changes. Those are detached: the team is a proxy, shared and never
+// initialized. Inside a transaction lookups go to the repository, so the caller gets managed entities.
+@Component
+public class MemberLookupCoalescer {
+
+  private final EntityManagerFactory emf;
+  private final EntityPersister persister;
+  private final MemberRepository memberRepository;
+  private final long windowNanos;
+  private final int maxBatch;
+  private final Map<Long, CompletableFuture<Optional<Object[]>>> inFlight = new ConcurrentHashMap<>();
+  private final Counter lookups;
+  private final Counter joined;
+  private final Counter loads;
+  private final DistributionSummary batchSizes;
+  private Batch open;  // guarded by this
+
+
+  public MemberLookupCoalescer(EntityManagerFactory emf, MemberRepository memberRepository,
+                               @Value("${repository.lookup.window:1ms}") Duration window,
+                               @Value("${repository.lookup.max-batch:100}") int maxBatch,
+                               MeterRegistry meterRegistry) {
+    this.emf = emf;
+    this.persister = emf.unwrap(SessionFactoryImplementor.class).getMetamodel().entityPersister(Member.class);
+    this.memberRepository = memberRepository;
+    this.windowNanos = window.toNanos();
+    this.maxBatch = maxBatch;
+    this.lookups = meterRegistry.counter("repository.lookup.requests", "entity", "Member");
+    this.joined = meterRegistry.counter("repository.lookup.joined", "entity", "Member");
+    this.loads = meterRegistry.counter("repository.lookup.loads", "entity", "Member");
+    this.batchSizes = DistributionSummary.builder("repository.lookup.batch.size")
+                                         .tag("entity", "Member")
+                                         .register(meterRegistry);
+    Gauge.builder("repository.lookup.coalescing.ratio", this, c -> c.loads.count() == 0 ? 1 : c.lookups.count() / c.loads.count())
+         .tag("entity", "Member")
+         .description("lookups per database round trip")
+         .register(meterRegistry);
+  }
+
+
+  public Optional<Member> findById(Long id) {
+    if (TransactionSynchronizationManager.isActualTransactionActive())
+      return memberRepository.findById(id);
+    lookups.increment();
+
+    CompletableFuture<Optional<Object[]>> result = new CompletableFuture<>();
+    CompletableFuture<Optional<Object[]>> loading = inFlight.putIfAbsent(id, result);
+    if (loading != null) {
+      joined.increment();
+      return join(loading).map(values -> member(id, values));
+    }
+
+    Batch batch;
+    boolean leader = false;
+    synchronized (this) {
+      if (open == null) {
+        open = new Batch();
+        leader = true;
+      }
+      batch = open;
+      batch.ids.add(id);
+      if (batch.ids.size() >= maxBatch) {
+        open = null;
+        batch.full.countDown();
+      }
+    }
+    if (leader)
+      lead(batch);
+    return join(result).map(values -> member(id, values));
+  }
+
+
+  private void lead(Batch batch) {
+    try {
+      if (windowNanos > 0)
+        batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<Long> ids;
+    synchronized (this) {
+      if (open == batch)
+        open = null;
+      ids = new ArrayList<>(batch.ids);
+    }
+
+    loads.increment();
+    batchSizes.record(ids.size());
+    try {
+      List<Object[]> values = load(ids);
+      for (int i = 0; i < ids.size(); ++i)
+        inFlight.remove(ids.get(i)).complete(Optional.ofNullable(values.get(i)));
+    }
+    catch (Throwable e) {  // whatever it is, the callers waiting for these ids must not wait forever
+      for (Long id : ids) {
+        CompletableFuture<Optional<Object[]>> waiting = inFlight.remove(id);
+        if (waiting != null)
+          waiting.completeExceptionally(e);
+      }
+      throw e;
+    }
+  }
+
+
+  // property values in the order of the ids, null where there is no member
+  private List<Object[]> load(List<Long> ids) {
+    EntityManager em = emf.createEntityManager();
+    try {
+      Session session = em.unwrap(Session.class);
+      session.setDefaultReadOnly(true);
+      return session.byMultipleIds(Member.class)
+                    .multiLoad(ids)
+                    .stream()
+                    .map(member -> member == null ? null : persister.getPropertyValues(member))
+                    .collect(Collectors.toList());
+    }
+    finally {
+      em.close();
+    }
+  }
+
+
+  private Member member(Long id, Object[] values) {
+    Member member = (Member) persister.instantiate(id, null);
+    persister.setPropertyValues(member, values);
+    return member;
+  }
+
+
+  private static Optional<Object[]> join(CompletableFuture<Optional<Object[]>> result) {
+    try {
+      return result.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw e;
+    }
+  }
+
+
+  private static class Batch {
+    private final List<Long> ids = new ArrayList<>();
+    private final CountDownLatch full = new CountDownLatch(1);
+  }
+
+}
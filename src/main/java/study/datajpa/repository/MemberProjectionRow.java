@@ -0,0 +1,17 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class MemberProjectionRow implements MemberProjection {
+
+  private final Long id;
+  private final String username;
+  private final String teamName;
+
+}
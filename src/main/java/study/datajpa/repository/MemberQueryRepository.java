@@ -0,0 +1,163 @@
+package study.datajpa.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import study.datajpa.dto.MemberDto;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+
+// Read-only DTO queries straight over JDBC: no persistence context, no snapshots, no proxies.
+// Row mappers read columns by position and call constructors directly.
+@Repository
+@RequiredArgsConstructor
+public class MemberQueryRepository {
+
+  static final String MEMBER_DTO_SQL =
+      "select m.member_id, m.username, t.name from member m left join team t on m.team_id = t.team_id";
+
+  static final RowMapper<MemberDto> MEMBER_DTO_MAPPER =
+      (rs, rowNum) -> new MemberDto(rs.getLong(1), rs.getString(2), rs.getString(3));
+
+  static final RowMapper<MemberProjection> MEMBER_PROJECTION_MAPPER =
+      (rs, rowNum) -> new MemberProjectionRow(rs.getLong(1), rs.getString(2), rs.getString(3));
+
+  // every Member attribute, as Pageable sorts over the entity took them, plus the joined team's name
+  private static final Map<String, String> SORT_COLUMNS = Map.ofEntries(
+      Map.entry("id", "m.member_id"),
+      Map.entry("username", "m.username"),
+      Map.entry("age", "m.age"),
+      Map.entry("version", "m.version"),
+      Map.entry("team", "m.team_id"),
+      Map.entry("createdDate", "m.created_date"),
+      Map.entry("lastModifiedDate", "m.last_modified_date"),
+      Map.entry("createdBy", "m.created_by"),
+      Map.entry("lastModifiedBy", "m.last_modified_by"),
+      Map.entry("teamName", "t.name"),
+      Map.entry("team.name", "t.name"));
+
+  private final NamedParameterJdbcTemplate jdbcTemplate;
+  private final PageCountTemplate pageCountTemplate;
+  private final RepositoryExecutor repositoryExecutor;
+  private final SlicePrefetcher slicePrefetcher;
+
+
+  public List<MemberDto> findMemberDto() {
+    String sql = "select m.member_id, m.username, t.name from member m join team t on m.team_id = t.team_id";
+    return jdbcTemplate.query(sql, MEMBER_DTO_MAPPER);
+  }
+
+
+  public Page<MemberDto> findMemberDtoPage(Pageable pageable, CountMode countMode) {
+    return page("MemberQuery.findMemberDtoPage", MEMBER_DTO_MAPPER, pageable, countMode);
+  }
+
+
+  public CompletableFuture<Page<MemberDto>> findMemberDtoPageAsync(Pageable pageable, CountMode countMode) {
+    return repositoryExecutor.supply(() -> findMemberDtoPage(pageable, countMode));
+  }
+
+
+  // The page's rows go to the handler as they are read, no Page or DTOs are built; returns the total.
+  public PageCountTemplate.Total streamMemberDtoPage(Pageable pageable, CountMode countMode, MemberDtoRowHandler handler) {
+    int[] rows = {0};
+    return pageCountTemplate.total(memberCount("MemberQuery.findMemberDtoPage"), countMode, pageable, () -> {
+      jdbcTemplate.query(MEMBER_DTO_SQL + orderBy(pageable.getSort()) + limit(pageable), limitParameters(pageable),
+                         (RowCallbackHandler) rs -> {
+                           handler.row(rs.getLong(1), rs.getString(2), rs.getString(3));
+                           ++rows[0];
+                         });
+      return rows[0];
+    });
+  }
+
+
+  public Page<MemberProjection> findMemberProjectionPage(Pageable pageable, CountMode countMode) {
+    return page("MemberQuery.findMemberProjectionPage", MEMBER_PROJECTION_MAPPER, pageable, countMode);
+  }
+
+
+  public Slice<MemberDto> findMemberDtoSliceByAge(int age, Pageable pageable, SliceMode sliceMode) {
+    if (sliceMode == SliceMode.PLAIN)
+      return memberDtoSliceByAge(age, pageable);
+    return slicePrefetcher.slice("MemberQuery.findMemberDtoSliceByAge", List.of("member", "team"), List.of(age),
+                                 pageable, p -> memberDtoSliceByAge(age, p));
+  }
+
+
+  private Slice<MemberDto> memberDtoSliceByAge(int age, Pageable pageable) {
+    if (pageable.isUnpaged())
+      throw new IllegalArgumentException("Slices need a page size");
+    List<MemberDto> content = jdbcTemplate.query(
+        MEMBER_DTO_SQL + " where m.age = :age" + orderBy(pageable.getSort()) + limit(pageable),
+        new MapSqlParameterSource("age", age)
+            .addValue("limit", pageable.getPageSize() + 1)  // one extra row tells whether there is a next slice
+            .addValue("offset", pageable.getOffset()),
+        MEMBER_DTO_MAPPER);
+    boolean hasNext = content.size() > pageable.getPageSize();
+    return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+  }
+
+
+  private <T> Page<T> page(String name, RowMapper<T> mapper, Pageable pageable, CountMode countMode) {
+    return pageCountTemplate.page(memberCount(name), countMode, pageable,
+        () -> jdbcTemplate.query(MEMBER_DTO_SQL + orderBy(pageable.getSort()) + limit(pageable),
+                                 limitParameters(pageable), mapper));
+  }
+
+
+  // named after the page query, so a streamed page shares the cached total of the collected one
+  private CountQuery memberCount(String name) {
+    return CountQuery.wholeTable(name, "member",
+        () -> jdbcTemplate.getJdbcTemplate().queryForObject("select count(*) from member", Long.class));
+  }
+
+
+  private static MapSqlParameterSource limitParameters(Pageable pageable) {
+    return new MapSqlParameterSource("limit", pageable.isPaged() ? pageable.getPageSize() : 0)
+        .addValue("offset", pageable.isPaged() ? pageable.getOffset() : 0);
+  }
+
+
+  // Throws IllegalArgumentException for a property the queries cannot sort by, before any query runs.
+  public static void checkSort(Sort sort) {
+    orderBy(sort);
+  }
+
+
+  static String orderBy(Sort sort) {
+    if (sort.isUnsorted())
+      return "";
+    return sort.stream()
+               .map(order -> {
+                 String column = SORT_COLUMNS.get(order.getProperty());
+                 if (column == null)
+                   throw new IllegalArgumentException("Unsupported sort property: " + order.getProperty());
+                 return column + (order.isAscending() ? " asc" : " desc");
+               })
+               .collect(Collectors.joining(", ", " order by ", ""));
+  }
+
+
+  private static String limit(Pageable pageable) {
+    return pageable.isPaged() ? " limit :limit offset :offset" : "";
+  }
+
+
+  public interface MemberDtoRowHandler {
+    void row(long id, String username, String teamName);
+  }
+
+}
@@ -23,6 +23,10 @@ public interface MemberRepository extends JpaRepository<Member, Long>,
 
 
   //  @Query(name = "Member.findByUsername")
+  @QueryHints({
+      @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+      @QueryHint(name = "org.hibernate.cacheRegion", value = "member.by-username")
+  })
   List<Member> findByUsername(@Param("username") String username);
 
 
@@ -60,9 +64,9 @@ public interface MemberRepository extends JpaRepository<Member, Long>,
   Page<Member> findMemberAllCountBy(Pageable pageable);
 
 
-  @Modifying(clearAutomatically = true)
-  @Query("update Member m set m.age = m.age + 1 where m.age >= :age")
-  int bulkAgePlus(@Param("age") int age);
+  default int bulkAgePlus(int age) {
+    return updateWhere(MemberSpec.ageFrom(age), BulkUpdate.<Member>create().increment("age", 1));
+  }
 
 
   @Query("select m from Member m left join fetch m.team")
@@ -86,7 +90,7 @@ public interface MemberRepository extends JpaRepository<Member, Long>,
   @QueryHints(value = @QueryHint(name = "org.hibernate.readOnly", value = "true"))
   List<Member> findReadOnlyByUsername(String name);
 
-  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Lock(LockModeType.PESSIMISTIC_WRITE)  // serializes writers; see OptimisticRetryTemplate for hot rows
   List<Member> findLockByUsername(String name);
 
 
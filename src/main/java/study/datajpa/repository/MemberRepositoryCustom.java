@@ -1,12 +1,71 @@
 package study.datajpa.repository;
 
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import study.datajpa.entity.Member;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 
 public interface MemberRepositoryCustom {
 
   List<Member> findMemberCustom();
 
+  KeysetWindow<Member> findMemberWindow(Sort sort, String continuation, int size);
+
+
+  Page<Member> findByAge(int age, Pageable pageable, CountMode countMode);
+
+  Page<Member> findMemberAllCountBy(Pageable pageable, CountMode countMode);
+
+  Page<MemberProjection> findByNativeProjection(Pageable pageable, CountMode countMode);
+
+
+  BatchInsertSummary saveAllBatched(Iterable<Member> members);
+
+
+  // In the order of the keys, with misses; see MultiGetTemplate for the chunking.
+  MultiGetResult<Long, Member> multiGetById(List<Long> ids);
+
+  MultiGetResult<String, Member> multiGetByUsername(List<String> usernames);
+
+
+  Stream<Member> streamAll(int fetchSize);
+
+  // Consumes streamAll on the repository executor; the stream is closed when the consumer returns.
+  <R> CompletableFuture<R> streamAllAsync(int fetchSize, Function<Stream<Member>, R> consumer);
+
+
+  // Structured specifications are served from SpecificationPlanCache, others through the Criteria API.
+  List<Member> findAll(Specification<Member> spec);
+
+  Page<Member> findAll(Specification<Member> spec, Pageable pageable);
+
+  long count(Specification<Member> spec);
+
+  Optional<Member> findOne(Specification<Member> spec);
+
+  // Compiled by ExampleCompiler and served from SpecificationPlanCache, others through the Criteria API.
+  <S extends Member> List<S> findAll(Example<S> example);
+
+
+  int updateWhere(Specification<Member> spec, BulkUpdate<Member> update);
+
+  int deleteWhere(Specification<Member> spec);
+
+
+  // Same signatures as the derived query methods, so the planned projections replace them.
+  List<UsernameOnly> findProjectionsByUsername(String name);
+
+  List<UsernameOnlyOpen> findOpenProjectionsByUsername(String name);
+
+  <T> List<T> findProjectionsByUsername(String name, Class<T> type);
+
 }
@@ -1,16 +1,60 @@
 package study.datajpa.repository;
 
 import lombok.RequiredArgsConstructor;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.convert.QueryByExamplePredicateBuilder;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.EscapeCharacter;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.data.support.PageableExecutionUtils;
 import study.datajpa.entity.Member;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 @RequiredArgsConstructor
 public class MemberRepositoryImpl implements MemberRepositoryCustom {
 
   private final EntityManager em;
+  private final PageCountTemplate pageCountTemplate;
+  private final BatchInsertTemplate batchInsertTemplate;
+  private final BulkOperationTemplate bulkOperationTemplate;
+  private final SpecificationPlanCache specificationPlanCache;
+  private final RepositoryExecutor repositoryExecutor;
+  private final ProjectionPlanner projectionPlanner;
+  private final ExampleCompiler exampleCompiler;
+  private final MultiGetTemplate multiGetTemplate;
+  private final ProjectionFactory projectionFactory = new SpelAwareProxyProjectionFactory();
 
 
   @Override
@@ -19,4 +63,308 @@ public class MemberRepositoryImpl implements MemberRepositoryCustom {
              .getResultList();
   }
 
+
+  @Override
+  public KeysetWindow<Member> findMemberWindow(Sort sort, String continuation, int size) {
+    KeysetCursor cursor = continuation == null ? null : KeysetCursor.decode(continuation);
+    Sort.Order order = cursor != null ? new Sort.Order(cursor.getDirection(), cursor.getProperty())
+                                      : sort.stream().findFirst().orElse(Sort.Order.asc("id"));
+    KeysetProperty key = KeysetProperty.of(order.getProperty());
+    String path = "m." + key.property;
+    String cmp = order.isAscending() ? " > " : " < ";
+    String dir = order.isAscending() ? " asc" : " desc";
+
+    String jpql = "select m from Member m";
+    if (cursor != null) {
+      if (key == KeysetProperty.ID)
+        jpql += " where m.id" + cmp + ":lastId";
+      else if (cursor.getLastValue() == null)  // already in the nulls-last tail
+        jpql += " where " + path + " is null and m.id" + cmp + ":lastId";
+      else
+        jpql += " where " + path + cmp + ":lastValue" +
+                " or (" + path + " = :lastValue and m.id" + cmp + ":lastId)" +
+                " or " + path + " is null";
+    }
+    jpql += key == KeysetProperty.ID ? " order by m.id" + dir
+                                     : " order by " + path + dir + " nulls last, m.id" + dir;
+
+    TypedQuery<Member> query = em.createQuery(jpql, Member.class)
+                                 .setMaxResults(size + 1);  // one extra row tells whether a next window exists
+    if (cursor != null) {
+      query.setParameter("lastId", cursor.getLastId());
+      if (key != KeysetProperty.ID && cursor.getLastValue() != null)
+        query.setParameter("lastValue", key.parser.apply(cursor.getLastValue()));
+    }
+
+    List<Member> members = query.getResultList();
+    if (members.size() <= size)
+      return new KeysetWindow<>(members, null);
+
+    List<Member> content = members.subList(0, size);
+    Member last = content.get(size - 1);
+    Object lastValue = key.accessor.apply(last);
+    KeysetCursor next = new KeysetCursor(key.property, order.getDirection(), last.getId(),
+                                         lastValue == null ? null : lastValue.toString());
+    return new KeysetWindow<>(content, next.encode());
+  }
+
+
+  @Override
+  public Page<Member> findByAge(int age, Pageable pageable, CountMode countMode) {
+    CountQuery count = CountQuery.of("Member.findByAge", List.of(age), "member",
+        () -> em.createQuery("select count(m) from Member m where m.age = :age", Long.class)
+                .setParameter("age", age)
+                .getSingleResult());
+    return pageCountTemplate.page(count, countMode, pageable, () -> {
+      String jpql = QueryUtils.applySorting("select m from Member m where m.age = :age", pageable.getSort(), "m");
+      return page(em.createQuery(jpql, Member.class).setParameter("age", age), pageable);
+    });
+  }
+
+
+  @Override
+  public Page<Member> findMemberAllCountBy(Pageable pageable, CountMode countMode) {
+    CountQuery count = CountQuery.wholeTable("Member.findMemberAllCountBy", "member",
+        () -> em.createQuery("select count(m.username) from Member m", Long.class)
+                .getSingleResult());
+    return pageCountTemplate.page(count, countMode, pageable, () -> {
+      String jpql = QueryUtils.applySorting("select m from Member m", pageable.getSort(), "m");
+      return page(em.createQuery(jpql, Member.class), pageable);
+    });
+  }
+
+
+  @Override
+  public Page<MemberProjection> findByNativeProjection(Pageable pageable, CountMode countMode) {
+    CountQuery count = CountQuery.wholeTable("Member.findByNativeProjection", "member",
+        () -> ((Number) em.createNativeQuery("select count(*) from member").getSingleResult()).longValue());
+    return pageCountTemplate.page(count, countMode, pageable, () -> {
+      String sql = QueryUtils.applySorting(
+          "select m.member_id as id, m.username, t.name as teamName from member m left join team t on m.team_id = t.team_id",
+          pageable.getSort(), "m");
+      List<Object[]> rows = page(em.createNativeQuery(sql), pageable);
+      return rows.stream()
+                 .map(row -> {
+                   Map<String, Object> values = new HashMap<>();
+                   values.put("id", ((Number) row[0]).longValue());
+                   values.put("username", row[1]);
+                   values.put("teamName", row[2]);
+                   return projectionFactory.createProjection(MemberProjection.class, values);
+                 })
+                 .collect(Collectors.toList());
+    });
+  }
+
+
+  @Override
+  public BatchInsertSummary saveAllBatched(Iterable<Member> members) {
+    return batchInsertTemplate.persistAll(members);
+  }
+
+
+  @Override
+  public MultiGetResult<Long, Member> multiGetById(List<Long> ids) {
+    return multiGetTemplate.get(Member.class, "id", Member::getId, ids);
+  }
+
+
+  @Override
+  public MultiGetResult<String, Member> multiGetByUsername(List<String> usernames) {
+    return multiGetTemplate.get(Member.class, "username", Member::getUsername, usernames);
+  }
+
+
+  // Forward-only cursor; each member (and its fetched team) is evicted once the consumer is done with it,
+  // so the persistence context stays empty however many rows are read. Needs a surrounding transaction.
+  @Override
+  public Stream<Member> streamAll(int fetchSize) {
+    Session session = em.unwrap(Session.class);
+    ScrollableResults results = session.createQuery("select m from Member m left join fetch m.team", Member.class)
+                                       .setFetchSize(fetchSize)
+                                       .setReadOnly(true)
+                                       .setCacheMode(CacheMode.IGNORE)
+                                       .scroll(ScrollMode.FORWARD_ONLY);
+
+    Spliterator<Member> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super Member> action) {
+        if (!results.next())
+          return false;
+        Member member = (Member) results.get(0);
+        action.accept(member);
+        session.evict(member);
+        if (member.getTeam() != null)
+          session.evict(member.getTeam());
+        return true;
+      }
+    };
+    return StreamSupport.stream(spliterator, false)
+                        .onClose(results::close);
+  }
+
+
+  @Override
+  public <R> CompletableFuture<R> streamAllAsync(int fetchSize, Function<Stream<Member>, R> consumer) {
+    return repositoryExecutor.supply(() -> {
+      try (Stream<Member> members = streamAll(fetchSize)) {
+        return consumer.apply(members);
+      }
+    });
+  }
+
+
+  @Override
+  public List<Member> findAll(Specification<Member> spec) {
+    return specQuery(spec, Sort.unsorted()).getResultList();
+  }
+
+
+  @Override
+  public Page<Member> findAll(Specification<Member> spec, Pageable pageable) {
+    TypedQuery<Member> query = specQuery(spec, pageable.getSort());
+    if (pageable.isPaged())
+      query.setFirstResult((int) pageable.getOffset())
+           .setMaxResults(pageable.getPageSize());
+    return PageableExecutionUtils.getPage(query.getResultList(), pageable, () -> count(spec));
+  }
+
+
+  @Override
+  public long count(Specification<Member> spec) {
+    if (spec instanceof StructuredSpecification)
+      return specificationPlanCache.count(em, Member.class, (StructuredSpecification<Member>) spec).getSingleResult();
+    CriteriaBuilder builder = em.getCriteriaBuilder();
+    CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+    Root<Member> root = criteria.from(Member.class);
+    Predicate predicate = spec == null ? null : spec.toPredicate(root, criteria, builder);
+    if (predicate != null)
+      criteria.where(predicate);
+    return em.createQuery(criteria.select(builder.count(root))).getSingleResult();
+  }
+
+
+  // at most one match, as JpaSpecificationExecutor.findOne
+  @Override
+  public Optional<Member> findOne(Specification<Member> spec) {
+    List<Member> members = specQuery(spec, Sort.unsorted()).setMaxResults(2).getResultList();
+    if (members.size() > 1)
+      throw new IncorrectResultSizeDataAccessException(1, members.size());
+    return members.stream().findFirst();
+  }
+
+
+  private TypedQuery<Member> specQuery(Specification<Member> spec, Sort sort) {
+    TypedQuery<Member> query = spec instanceof StructuredSpecification
+        ? specificationPlanCache.query(em, Member.class, (StructuredSpecification<Member>) spec, sort)
+        : null;
+    if (query != null)
+      return query;
+    CriteriaBuilder builder = em.getCriteriaBuilder();
+    CriteriaQuery<Member> criteria = builder.createQuery(Member.class);
+    Root<Member> root = criteria.from(Member.class);
+    Predicate predicate = spec == null ? null : spec.toPredicate(root, criteria, builder);
+    if (predicate != null)
+      criteria.where(predicate);
+    if (sort.isSorted())
+      criteria.orderBy(QueryUtils.toOrders(sort, root, builder));
+    return em.createQuery(criteria.select(root));
+  }
+
+
+  @Override
+  public <S extends Member> List<S> findAll(Example<S> example) {
+    StructuredSpecification<S> spec = exampleCompiler.compile(example);
+    TypedQuery<S> query = spec == null ? null : specificationPlanCache.query(em, example.getProbeType(), spec);
+    if (query == null) {
+      CriteriaBuilder builder = em.getCriteriaBuilder();
+      CriteriaQuery<S> criteria = builder.createQuery(example.getProbeType());
+      Root<S> root = criteria.from(example.getProbeType());
+      Predicate predicate = QueryByExamplePredicateBuilder.getPredicate(root, builder, example, EscapeCharacter.DEFAULT);
+      if (predicate != null)
+        criteria.where(predicate);
+      query = em.createQuery(criteria.select(root));
+    }
+    return query.getResultList();
+  }
+
+
+  @Override
+  public int updateWhere(Specification<Member> spec, BulkUpdate<Member> update) {
+    return bulkOperationTemplate.update(Member.class, spec, update);
+  }
+
+
+  @Override
+  public int deleteWhere(Specification<Member> spec) {
+    return bulkOperationTemplate.delete(Member.class, spec);
+  }
+
+
+  @Override
+  public List<UsernameOnly> findProjectionsByUsername(String name) {
+    return findProjectionsByUsername(name, UsernameOnly.class);
+  }
+
+
+  @Override
+  public List<UsernameOnlyOpen> findOpenProjectionsByUsername(String name) {
+    return findProjectionsByUsername(name, UsernameOnlyOpen.class);
+  }
+
+
+  @Override
+  public <T> List<T> findProjectionsByUsername(String name, Class<T> type) {
+    ProjectionPlan<T> plan = projectionPlanner.planFor(Member.class, type);
+    if (plan == null) {
+      if (!type.isInterface())
+        throw new IllegalArgumentException("Cannot project Member onto " + type.getName());
+      return em.createQuery("select m from Member m where m.username = :username", Member.class)
+               .setParameter("username", name)
+               .getResultStream()
+               .map(m -> projectionFactory.createProjection(type, m))
+               .collect(Collectors.toList());
+    }
+    return em.createQuery(plan.jpql("m.username = :username"), Tuple.class)
+             .setParameter("username", name)
+             .getResultStream()
+             .map(t -> plan.materialize(t.toArray()))
+             .collect(Collectors.toList());
+  }
+
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> page(Query query, Pageable pageable) {
+    if (pageable.isPaged()) {
+      query.setFirstResult((int) pageable.getOffset());
+      query.setMaxResults(pageable.getPageSize());
+    }
+    return query.getResultList();
+  }
+
+
+  private enum KeysetProperty {
+    ID("id", Member::getId, Long::valueOf),
+    USERNAME("username", Member::getUsername, v -> v),
+    AGE("age", Member::getAge, Integer::valueOf);
+
+    private final String property;
+    private final Function<Member, Object> accessor;
+    private final Function<String, Object> parser;
+
+
+    KeysetProperty(String property, Function<Member, Object> accessor, Function<String, Object> parser) {
+      this.property = property;
+      this.accessor = accessor;
+      this.parser = parser;
+    }
+
+
+    static KeysetProperty of(String property) {
+      return Arrays.stream(values())
+                   .filter(k -> k.property.equals(property))
+                   .findFirst()
+                   .orElseThrow(() -> new IllegalArgumentException("Unsupported keyset sort property: " + property));
+    }
+  }
+
 }
@@ -1,28 +1,25 @@
 package study.datajpa.repository;
 
-import org.springframework.data.jpa.domain.Specification;
 import org.springframework.util.StringUtils;
 import study.datajpa.entity.Member;
-import study.datajpa.entity.Team;
-
-import javax.persistence.criteria.Join;
-import javax.persistence.criteria.JoinType;
 
 
 public class MemberSpec {
 
-  public static Specification<Member> teamName(final String teamName) {
-    return (root, query, builder) -> {
-      if (StringUtils.isEmpty(teamName))
-        return null;
-      Join<Member, Team> join = root.join("team", JoinType.INNER);
-      return builder.equal(join.get("name"), teamName);
-    };
+  public static StructuredSpecification<Member> teamName(final String teamName) {
+    if (!StringUtils.hasLength(teamName))
+      return StructuredSpecification.all();
+    return StructuredSpecification.equal("team.name", teamName);
+  }
+
+
+  public static StructuredSpecification<Member> username(final String username) {
+    return StructuredSpecification.equal("username", username);
   }
 
 
-  public static Specification<Member> username(final String username) {
-    return (root, query, builder) -> builder.equal(root.get("username"), username);
+  public static StructuredSpecification<Member> ageFrom(final int age) {
+    return StructuredSpecification.greaterThanOrEqualTo("age", age);
   }
 
 }
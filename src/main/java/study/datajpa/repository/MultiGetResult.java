@@ -0,0 +1,58 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+
+// One entry per requested key, in request order; a key that matched nothing is a miss.
+public class MultiGetResult<K, T> {
+
+  @Getter
+  private final List<K> keys;
+  private final List<T> values;  // null for a miss
+
+
+  MultiGetResult(List<K> keys, List<T> values) {
+    this.keys = Collections.unmodifiableList(keys);
+    this.values = values;
+  }
+
+
+  public int size() {
+    return keys.size();
+  }
+
+
+  public Optional<T> get(int index) {
+    return Optional.ofNullable(values.get(index));
+  }
+
+
+  public boolean isMiss(int index) {
+    return values.get(index) == null;
+  }
+
+
+  // in request order, without the misses
+  public List<T> getFound() {
+    List<T> found = new ArrayList<>();
+    for (T value : values)
+      if (value != null)
+        found.add(value);
+    return found;
+  }
+
+
+  public List<K> getMissingKeys() {
+    List<K> missing = new ArrayList<>();
+    for (int i = 0; i < keys.size(); ++i)
+      if (values.get(i) == null)
+        missing.add(keys.get(i));
+    return missing;
+  }
+
+}
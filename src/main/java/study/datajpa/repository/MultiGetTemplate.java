@@ -0,0 +1,123 @@
+package study.datajpa.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+// Looks entities up by a list of keys ("where e.attribute in :keys") without one giant IN list.
+// Distinct keys go in chunks of at most chunk-size, so no statement exceeds the driver's parameter limit;
+// hibernate.query.in_clause_parameter_padding keeps the number of statement shapes down.
+// Inside a transaction the chunks run one after another on the caller's persistence context. Outside
+// one, several chunks run in parallel on the RepositoryExecutor, each in its worker's read-only
+// transaction and on that transaction's connection; a chunk left to the caller's thread gets a
+// persistence context of its own, closed once it is read. Either way the entities come back detached.
+// For an attribute that isn't unique the member with the lowest id wins.
+@Component
+public class MultiGetTemplate {
+
+  @PersistenceContext
+  private EntityManager em;
+
+  private final EntityManagerFactory emf;
+  private final RepositoryExecutor repositoryExecutor;
+  private final int chunkSize;
+
+
+  public MultiGetTemplate(EntityManagerFactory emf, RepositoryExecutor repositoryExecutor,
+                          @Value("${repository.multi-get.chunk-size:512}") int chunkSize) {
+    this.emf = emf;
+    this.repositoryExecutor = repositoryExecutor;
+    this.chunkSize = Math.max(chunkSize, 1);
+  }
+
+
+  public <K, T> MultiGetResult<K, T> get(Class<T> type, String attribute, Function<T, K> keyOf, List<K> keys) {
+    List<K> distinct = new ArrayList<>(new LinkedHashSet<>(keys));
+    distinct.remove(null);
+    List<List<K>> chunks = new ArrayList<>();
+    for (int from = 0; from < distinct.size(); from += chunkSize)
+      chunks.add(distinct.subList(from, Math.min(from + chunkSize, distinct.size())));
+
+    String jpql = "select e from " + type.getSimpleName() + " e where e." + attribute + " in :keys order by e.id";
+    Map<K, T> found = new HashMap<>();
+    if (chunks.size() < 2 || TransactionSynchronizationManager.isActualTransactionActive()) {
+      for (List<K> chunk : chunks)
+        collect(load(jpql, type, chunk), keyOf, found);
+    }
+    else {
+      List<CompletableFuture<List<T>>> loads = new ArrayList<>();
+      for (List<K> chunk : chunks)
+        loads.add(submit(() -> load(jpql, type, chunk)));
+      for (CompletableFuture<List<T>> load : loads)
+        collect(join(load), keyOf, found);
+    }
+
+    List<T> values = new ArrayList<>(keys.size());
+    for (K key : keys)
+      values.add(key == null ? null : found.get(key));
+    return new MultiGetResult<>(new ArrayList<>(keys), values);
+  }
+
+
+  // Decided on the thread that loads: a worker's transaction already holds a connection, and a private
+  // EntityManager there would take a second one. Without a transaction, whatever persistence context
+  // the thread has (open-in-view), the entities stay out of it.
+  private <T> List<T> load(String jpql, Class<T> type, List<?> chunk) {
+    boolean managed = TransactionSynchronizationManager.isActualTransactionActive();
+    EntityManager target = managed ? em : emf.createEntityManager();
+    try {
+      return target.createQuery(jpql, type)
+                   .setParameter("keys", chunk)
+                   .getResultList();
+    }
+    finally {
+      if (!managed)
+        target.close();
+    }
+  }
+
+
+  // runs in the caller's thread when the executor is saturated
+  private <T> CompletableFuture<List<T>> submit(Supplier<List<T>> load) {
+    try {
+      return repositoryExecutor.supply(load);
+    }
+    catch (TaskRejectedException e) {
+      return CompletableFuture.completedFuture(load.get());
+    }
+  }
+
+
+  private static <K, T> void collect(List<T> entities, Function<T, K> keyOf, Map<K, T> found) {
+    for (T entity : entities)
+      found.putIfAbsent(keyOf.apply(entity), entity);
+  }
+
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
+}
@@ -7,7 +7,7 @@ public interface NestedClosedProjection {
 
   TeamInfo getTeam();
 
-  interface TeamInfo {  // 최적화되지 않음
+  interface TeamInfo {  // ProjectionPlanner selects only team.name through a left join
     String getName();
   }
 
@@ -0,0 +1,118 @@
+package study.datajpa.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+
+// Read-modify-write against @Version entities without row locks: each attempt runs in its own
+// transaction and a version conflict at flush/commit retries the whole attempt after an exponential
+// backoff with jitter, so colliding writers spread out instead of retrying in lockstep.
+// The alternative to MemberRepository.findLockByUsername (PESSIMISTIC_WRITE) for hot rows.
+@Component
+public class OptimisticRetryTemplate {
+
+  private final TransactionTemplate transactionTemplate;
+  private final MeterRegistry meterRegistry;
+  private final int maxAttempts;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final double jitter;
+  private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+
+  public OptimisticRetryTemplate(PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                                 @Value("${repository.optimistic.max-attempts:5}") int maxAttempts,
+                                 @Value("${repository.optimistic.initial-backoff:5ms}") Duration initialBackoff,
+                                 @Value("${repository.optimistic.max-backoff:200ms}") Duration maxBackoff,
+                                 @Value("${repository.optimistic.jitter:0.5}") double jitter) {
+    if (maxAttempts < 1)
+      throw new IllegalArgumentException("max-attempts must be at least 1");
+    if (jitter < 0 || jitter > 1)
+      throw new IllegalArgumentException("jitter must be between 0 and 1");
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.meterRegistry = meterRegistry;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffNanos = initialBackoff.toNanos();
+    this.maxBackoffNanos = maxBackoff.toNanos();
+    this.jitter = jitter;
+  }
+
+
+  // name tags the metrics; the last conflict is rethrown once the attempts are used up
+  public <T> T execute(String name, Supplier<T> work) {
+    if (TransactionSynchronizationManager.isActualTransactionActive())
+      throw new IllegalStateException("retrying inside a transaction would reuse its stale persistence context");
+
+    Meters m = meters.computeIfAbsent(name, k -> new Meters(meterRegistry, name));
+    for (int attempt = 1; ; ++attempt) {
+      try {
+        T result = transactionTemplate.execute(status -> work.get());
+        m.attempts.record(attempt);
+        return result;
+      }
+      catch (OptimisticLockingFailureException e) {
+        m.conflicts.increment();
+        if (attempt >= maxAttempts) {
+          m.attempts.record(attempt);
+          m.exhausted.increment();
+          throw e;
+        }
+        sleep(backoff(attempt));
+      }
+    }
+  }
+
+
+  long backoff(int attempt) {
+    long backoff = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 30));
+    long spread = (long) (backoff * jitter);
+    return backoff - spread + (spread == 0 ? 0 : ThreadLocalRandom.current().nextLong(spread * 2 + 1));
+  }
+
+
+  private static void sleep(long nanos) {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while backing off", e);
+    }
+  }
+
+
+  private static class Meters {
+
+    private final Counter conflicts;
+    private final Counter exhausted;
+    private final DistributionSummary attempts;
+
+
+    Meters(MeterRegistry registry, String name) {
+      conflicts = Counter.builder("repository.optimistic.conflicts")
+                         .tag("operation", name)
+                         .register(registry);
+      exhausted = Counter.builder("repository.optimistic.exhausted")
+                         .tag("operation", name)
+                         .register(registry);
+      attempts = DistributionSummary.builder("repository.optimistic.attempts")
+                                    .tag("operation", name)
+                                    .register(registry);
+    }
+  }
+
+}
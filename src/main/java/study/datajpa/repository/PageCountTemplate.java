@@ -0,0 +1,226 @@
+package study.datajpa.repository;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import study.datajpa.support.TableWriteTracker;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+
+// DEFERRED counts run on the RepositoryExecutor, under its cap on connections used off the request thread.
+@Component
+public class PageCountTemplate {
+
+  private final TableWriteTracker writeTracker;
+  private final JdbcTemplate jdbcTemplate;
+  private final RepositoryExecutor repositoryExecutor;
+  private final long ttlNanos;
+  private final int maxEntries;
+  private final Map<CacheKey, CachedCount> cache = new ConcurrentHashMap<>();
+  private volatile String estimateSql;
+
+
+  public PageCountTemplate(TableWriteTracker writeTracker, JdbcTemplate jdbcTemplate,
+                           RepositoryExecutor repositoryExecutor,
+                           @Value("${repository.count.cache-ttl:30s}") Duration ttl,
+                           @Value("${repository.count.cache-max-entries:1000}") int maxEntries) {
+    this.writeTracker = writeTracker;
+    this.jdbcTemplate = jdbcTemplate;
+    this.repositoryExecutor = repositoryExecutor;
+    this.ttlNanos = ttl.toNanos();
+    this.maxEntries = maxEntries;
+  }
+
+
+  public <T> Page<T> page(CountQuery count, CountMode mode, Pageable pageable, Supplier<List<T>> content) {
+    List<List<T>> rows = new ArrayList<>(1);
+    Total total = total(count, mode, pageable, () -> {
+      rows.add(content.get());
+      return rows.get(0).size();
+    });
+    return new CountedPage<>(rows.get(0), pageable, total.value, total.exact);
+  }
+
+
+  // For content that is streamed rather than collected: content emits the rows and returns how many.
+  public Total total(CountQuery count, CountMode mode, Pageable pageable, IntSupplier content) {
+    CompletableFuture<Long> deferred = mode == CountMode.DEFERRED ? submit(count) : null;
+
+    int rows = content.getAsInt();
+    Long derived = deriveTotal(rows, pageable);
+    if (derived != null) {
+      if (deferred != null)
+        deferred.cancel(false);
+      return new Total(derived, true);
+    }
+
+    switch (mode) {
+      case CACHED: {
+        CachedCount cached = cache.get(new CacheKey(count.getName(), count.getParams()));
+        if (cached != null && isValid(cached, count))
+          return new Total(cached.total, false);
+        return new Total(exact(count), true);
+      }
+      case ESTIMATED: {
+        Long estimate = count.isWholeTable() ? estimateTableRows(count.getTable()) : null;
+        if (estimate == null) {
+          CachedCount cached = cache.get(new CacheKey(count.getName(), count.getParams()));
+          estimate = cached == null ? null : cached.total;  // stale totals are fine for an estimate
+        }
+        if (estimate != null)
+          return new Total(estimate, false);
+        return new Total(exact(count), true);
+      }
+      case DEFERRED:
+        return new Total(deferred != null ? join(deferred) : exact(count), true);
+      default:
+        return new Total(exact(count), true);
+    }
+  }
+
+
+  public void invalidate(String queryName) {
+    cache.keySet().removeIf(key -> key.name.equals(queryName));
+  }
+
+
+  // Totals counted in a read-write transaction may include its own uncommitted rows, so they stay out
+  // of the cache other requests read.
+  private long exact(CountQuery count) {
+    long version = writeTracker.version(count.getTable());  // read before counting, so a racing write wins
+    long total = count.getCounter().getAsLong();
+    if (isReadWriteTransaction())
+      return total;
+    if (cache.size() >= maxEntries)
+      evictOne();
+    cache.put(new CacheKey(count.getName(), count.getParams()),
+              new CachedCount(total, version, System.nanoTime() + ttlNanos));
+    return total;
+  }
+
+
+  private boolean isValid(CachedCount cached, CountQuery count) {
+    return System.nanoTime() - cached.expiresAt < 0
+        && cached.tableVersion == writeTracker.version(count.getTable());
+  }
+
+
+  private void evictOne() {
+    long now = System.nanoTime();
+    if (cache.values().removeIf(c -> now - c.expiresAt >= 0))
+      return;
+    Iterator<CacheKey> it = cache.keySet().iterator();
+    if (it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+
+  // A read-write transaction must count its own uncommitted rows, which another thread cannot see;
+  // a worker counts after its content instead, on its own connection.
+  private CompletableFuture<Long> submit(CountQuery count) {
+    if (isReadWriteTransaction() || RepositoryExecutor.isWorkerThread())
+      return null;
+    try {
+      return repositoryExecutor.supply(() -> exact(count));
+    }
+    catch (TaskRejectedException e) {
+      return null;
+    }
+  }
+
+
+  private static boolean isReadWriteTransaction() {
+    return TransactionSynchronizationManager.isActualTransactionActive()
+        && !TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+  }
+
+
+  private static long join(CompletableFuture<Long> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
+
+  private static Long deriveTotal(int rows, Pageable pageable) {
+    if (pageable.isUnpaged() || pageable.getOffset() == 0 && rows < pageable.getPageSize())
+      return (long) rows;
+    if (rows > 0 && rows < pageable.getPageSize())
+      return pageable.getOffset() + rows;
+    return null;
+  }
+
+
+  private Long estimateTableRows(String table) {
+    if (estimateSql == null)
+      estimateSql = estimateSqlFor(jdbcTemplate.execute(
+          (ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName()));
+    if (estimateSql.isEmpty())
+      return null;
+    List<Long> rows = jdbcTemplate.queryForList(estimateSql, Long.class, table);
+    return rows.isEmpty() || rows.get(0) == null || rows.get(0) < 0 ? null : rows.get(0);
+  }
+
+
+  private static String estimateSqlFor(String product) {
+    String name = product == null ? "" : product.toLowerCase(Locale.ROOT);
+    if (name.contains("h2"))
+      return "select row_count_estimate from information_schema.tables where lower(table_name) = lower(?)";
+    if (name.contains("postgres"))
+      return "select reltuples::bigint from pg_class where relname = lower(?)";
+    if (name.contains("mysql") || name.contains("mariadb"))
+      return "select table_rows from information_schema.tables where table_schema = database() and table_name = ?";
+    return "";  // no cheap estimate, callers fall back to the last known or exact total
+  }
+
+
+  @Getter
+  @RequiredArgsConstructor
+  public static class Total {
+    private final long value;
+    private final boolean exact;  // false for cached and estimated totals
+  }
+
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  private static class CacheKey {
+    private final String name;
+    private final List<?> params;
+  }
+
+
+  @RequiredArgsConstructor
+  private static class CachedCount {
+    private final long total;
+    private final long tableVersion;
+    private final long expiresAt;
+  }
+
+}
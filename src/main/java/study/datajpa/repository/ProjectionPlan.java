@@ -0,0 +1,46 @@
+package study.datajpa.repository;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.function.Function;
+
+
+// Minimal select list and joins for one projection type, plus the materializer that turns a result row
+// into the projection instance.
+@Getter
+public class ProjectionPlan<T> {
+
+  private final Class<T> type;
+  private final String entityName;
+  private final List<String> selections;
+  private final List<String> joins;
+  private final Function<Object[], Object> materializer;
+
+
+  ProjectionPlan(Class<T> type, String entityName, List<String> selections, List<String> joins,
+                 Function<Object[], Object> materializer) {
+    this.type = type;
+    this.entityName = entityName;
+    this.selections = selections;
+    this.joins = joins;
+    this.materializer = materializer;
+  }
+
+
+  public String jpql(String where) {
+    StringBuilder jpql = new StringBuilder("select ").append(String.join(", ", selections))
+                                                      .append(" from ").append(entityName).append(" m");
+    for (String join : joins)
+      jpql.append(' ').append(join);
+    if (where != null)
+      jpql.append(" where ").append(where);
+    return jpql.toString();
+  }
+
+
+  public T materialize(Object[] row) {
+    return type.cast(materializer.apply(row));
+  }
+
+}
@@ -0,0 +1,356 @@
+package study.datajpa.repository;
+
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.expression.MapAccessor;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.data.repository.core.RepositoryInformation;
+import org.springframework.data.repository.support.Repositories;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ParserContext;
+import org.springframework.expression.common.CompositeStringExpression;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import java.beans.Introspector;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+
+// Compiles projection types into minimal select lists. Closed getters select their column, nested
+// projections join the association and select only what they read, and open @Value getters are
+// resolved statically when the SpEL only navigates target properties. Projections declared on
+// repository methods are compiled at startup, dynamic ones on first use.
+@Slf4j
+@Component
+public class ProjectionPlanner implements SmartInitializingSingleton {
+
+  private static final SpelExpressionParser PARSER = new SpelExpressionParser();
+
+  private final Metamodel metamodel;
+  private final ListableBeanFactory beanFactory;
+  private final StandardEvaluationContext evaluationContext = new StandardEvaluationContext();
+  private final ParameterNameDiscoverer parameterNames = new DefaultParameterNameDiscoverer();
+  private final Map<PlanKey, Optional<ProjectionPlan<?>>> plans = new ConcurrentHashMap<>();
+
+
+  public ProjectionPlanner(EntityManagerFactory emf, ListableBeanFactory beanFactory) {
+    this.metamodel = emf.getMetamodel();
+    this.beanFactory = beanFactory;
+    evaluationContext.addPropertyAccessor(new MapAccessor());
+  }
+
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    Repositories repositories = new Repositories(beanFactory);
+    for (Class<?> domainType : repositories) {
+      RepositoryInformation info = repositories.getRequiredRepositoryInformation(domainType);
+      for (Method method : info.getQueryMethods()) {
+        Class<?> returned = info.getReturnedDomainClass(method);
+        if (returned.isInterface())
+          planFor(domainType, returned);
+      }
+    }
+  }
+
+
+  // null when the type cannot be planned; callers fall back to loading entities
+  @SuppressWarnings("unchecked")
+  public <T> ProjectionPlan<T> planFor(Class<?> entityType, Class<T> projection) {
+    return (ProjectionPlan<T>) plans.computeIfAbsent(new PlanKey(entityType, projection), key -> {
+      try {
+        ProjectionPlan<?> plan = compile(metamodel.entity(entityType), projection);
+        log.debug("projection {}: {}", projection.getSimpleName(), plan.jpql(null));
+        return Optional.of(plan);
+      }
+      catch (IllegalArgumentException e) {
+        log.debug("projection {} is not planned: {}", projection.getSimpleName(), e.getMessage());
+        return Optional.empty();
+      }
+      catch (RuntimeException | LinkageError e) {  // generating the row class failed, e.g. a non-public interface
+        log.warn("projection {} is not planned", projection.getSimpleName(), e);
+        return Optional.empty();
+      }
+    }).orElse(null);
+  }
+
+
+  private <T> ProjectionPlan<T> compile(EntityType<?> root, Class<T> projection) {
+    Selection selection = new Selection();
+    Function<Object[], Object> materializer = projection.isInterface()
+        ? interfaceNode(selection, root, "m", projection)
+        : classNode(selection, root, "m", projection);
+    return new ProjectionPlan<>(projection, root.getName(), new ArrayList<>(selection.columns.keySet()),
+                                new ArrayList<>(selection.joins.values()), materializer);
+  }
+
+
+  private Function<Object[], Object> interfaceNode(Selection selection, ManagedType<?> type, String alias,
+                                                   Class<?> projection) {
+    List<Method> getters = ProjectionRowClasses.getters(projection);
+    List<Function<Object[], Object>> slots = new ArrayList<>();
+    for (Method getter : getters) {
+      Value value = getter.getAnnotation(Value.class);
+      slots.add(value != null ? spelSlot(selection, type, alias, value.value())
+                              : propertySlot(selection, type, alias, propertyName(getter), getter.getReturnType()));
+    }
+
+    MethodHandle constructor = ProjectionRowClasses.constructor(projection);
+    return row -> {
+      Object[] values = new Object[slots.size()];
+      for (int i = 0; i < values.length; ++i)
+        values[i] = slots.get(i).apply(row);
+      return newInstance(constructor, values);
+    };
+  }
+
+
+  private Function<Object[], Object> classNode(Selection selection, ManagedType<?> type, String alias,
+                                               Class<?> dto) {
+    Constructor<?>[] constructors = dto.getConstructors();
+    if (constructors.length != 1)
+      throw new IllegalArgumentException(dto.getName() + " needs exactly one public constructor");
+    String[] names = parameterNames.getParameterNames(constructors[0]);
+    if (names == null)
+      throw new IllegalArgumentException("no parameter names for " + dto.getName());
+
+    Class<?>[] types = constructors[0].getParameterTypes();
+    List<Function<Object[], Object>> slots = new ArrayList<>();
+    for (int i = 0; i < names.length; ++i) {
+      if (types[i].isInterface())
+        throw new IllegalArgumentException("nested projection in constructor of " + dto.getName());
+      slots.add(propertySlot(selection, type, alias, names[i], types[i]));
+    }
+
+    MethodHandle constructor;
+    try {
+      constructor = MethodHandles.publicLookup()
+                                 .unreflectConstructor(constructors[0])
+                                 .asSpreader(Object[].class, names.length)
+                                 .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+    catch (IllegalAccessException e) {
+      throw new IllegalArgumentException("constructor of " + dto.getName() + " is not accessible", e);
+    }
+    return row -> {
+      Object[] values = new Object[slots.size()];
+      for (int i = 0; i < values.length; ++i)
+        values[i] = slots.get(i).apply(row);
+      return newInstance(constructor, values);
+    };
+  }
+
+
+  private Function<Object[], Object> propertySlot(Selection selection, ManagedType<?> type, String alias,
+                                                  String property, Class<?> returnType) {
+    Attribute<?, ?> attribute = type.getAttribute(property);  // IllegalArgumentException when unknown
+    if (attribute.isCollection())
+      throw new IllegalArgumentException("collection " + property + " cannot be projected flat");
+    if (!attribute.isAssociation()) {
+      int index = selection.column(alias + "." + property);
+      return row -> row[index];
+    }
+    if (!returnType.isInterface())
+      throw new IllegalArgumentException(property + " would select the whole " + attribute.getJavaType().getSimpleName());
+
+    ManagedType<?> target = metamodel.managedType(attribute.getJavaType());
+    String joinAlias = selection.join(alias, property);
+    int idIndex = selection.column(joinAlias + "." + idName(target));
+    Function<Object[], Object> nested = interfaceNode(selection, target, joinAlias, returnType);
+    return row -> row[idIndex] == null ? null : nested.apply(row);
+  }
+
+
+  // Evaluates the @Value expression against a map shaped like the entity, holding only the selected paths.
+  private Function<Object[], Object> spelSlot(Selection selection, ManagedType<?> type, String alias, String template) {
+    Expression expression = PARSER.parseExpression(template, ParserContext.TEMPLATE_EXPRESSION);
+    List<List<String>> chains = new ArrayList<>();
+    for (SpelExpression part : spelParts(expression))
+      collectTargetChains(part.getAST(), chains);
+
+    List<PathSetter> setters = new ArrayList<>();
+    for (List<String> chain : chains)
+      setters.add(pathSetter(selection, type, alias, chain));
+
+    return row -> {
+      Map<String, Object> target = new HashMap<>();
+      for (PathSetter setter : setters)
+        setter.set(row, target);
+      return expression.getValue(evaluationContext, Map.of("target", target));
+    };
+  }
+
+
+  private PathSetter pathSetter(Selection selection, ManagedType<?> type, String alias, List<String> chain) {
+    List<Integer> idIndexes = new ArrayList<>();
+    ManagedType<?> current = type;
+    String currentAlias = alias;
+    for (int i = 0; i < chain.size() - 1; ++i) {
+      Attribute<?, ?> attribute = current.getAttribute(chain.get(i));
+      if (!attribute.isAssociation() || attribute.isCollection())
+        throw new IllegalArgumentException("target." + String.join(".", chain) + " does not navigate to-one associations");
+      current = metamodel.managedType(attribute.getJavaType());
+      currentAlias = selection.join(currentAlias, chain.get(i));
+      idIndexes.add(selection.column(currentAlias + "." + idName(current)));
+    }
+    String leaf = chain.get(chain.size() - 1);
+    if (current.getAttribute(leaf).isAssociation())
+      throw new IllegalArgumentException("target." + String.join(".", chain) + " needs the whole entity");
+    int valueIndex = selection.column(currentAlias + "." + leaf);
+    return new PathSetter(chain, idIndexes, valueIndex);
+  }
+
+
+  private static List<SpelExpression> spelParts(Expression expression) {
+    List<SpelExpression> parts = new ArrayList<>();
+    if (expression instanceof SpelExpression)
+      parts.add((SpelExpression) expression);
+    else if (expression instanceof CompositeStringExpression)
+      for (Expression part : ((CompositeStringExpression) expression).getExpressions())
+        parts.addAll(spelParts(part));
+    return parts;
+  }
+
+
+  private static void collectTargetChains(SpelNode node, List<List<String>> chains) {
+    if (node instanceof CompoundExpression && isTarget(node.getChild(0))) {
+      List<String> chain = new ArrayList<>();
+      int i = 1;
+      for (; i < node.getChildCount() && node.getChild(i) instanceof PropertyOrFieldReference; ++i)
+        chain.add(((PropertyOrFieldReference) node.getChild(i)).getName());
+      if (chain.isEmpty())
+        throw new IllegalArgumentException("expression uses target beyond property navigation");
+      chains.add(chain);
+      for (; i < node.getChildCount(); ++i)
+        collectTargetChains(node.getChild(i), chains);
+      return;
+    }
+    if (isTarget(node))
+      throw new IllegalArgumentException("expression uses the whole target");
+    for (int i = 0; i < node.getChildCount(); ++i)
+      collectTargetChains(node.getChild(i), chains);
+  }
+
+
+  private static boolean isTarget(SpelNode node) {
+    return node instanceof PropertyOrFieldReference && "target".equals(((PropertyOrFieldReference) node).getName());
+  }
+
+
+  private static String idName(ManagedType<?> type) {
+    if (!(type instanceof IdentifiableType))
+      throw new IllegalArgumentException(type.getJavaType().getSimpleName() + " has no id");
+    IdentifiableType<?> identifiable = (IdentifiableType<?>) type;
+    SingularAttribute<?, ?> id = identifiable.getId(identifiable.getIdType().getJavaType());
+    return id.getName();
+  }
+
+
+  private static String propertyName(Method getter) {
+    String name = getter.getName();
+    if (name.startsWith("get") && name.length() > 3)
+      return Introspector.decapitalize(name.substring(3));
+    if (name.startsWith("is") && name.length() > 2)
+      return Introspector.decapitalize(name.substring(2));
+    throw new IllegalArgumentException(name + " is not a getter");
+  }
+
+
+  private static Object newInstance(MethodHandle constructor, Object[] values) {
+    try {
+      return (Object) constructor.invokeExact(values);
+    }
+    catch (RuntimeException | Error e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+  private static class Selection {
+
+    private final Map<String, Integer> columns = new LinkedHashMap<>();
+    private final Map<String, String> aliases = new LinkedHashMap<>();
+    private final Map<String, String> joins = new LinkedHashMap<>();
+
+
+    int column(String path) {
+      return columns.computeIfAbsent(path, p -> columns.size());
+    }
+
+
+    // one left join per association path, however many getters read through it
+    String join(String alias, String property) {
+      return aliases.computeIfAbsent(alias + "." + property, path -> {
+        String joinAlias = "j" + (aliases.size() + 1);
+        joins.put(path, "left join " + path + " " + joinAlias);
+        return joinAlias;
+      });
+    }
+  }
+
+
+  // Writes one target.a.b path into the nested map, leaving a null association where the join found nothing.
+  @RequiredArgsConstructor
+  private static class PathSetter {
+
+    private final List<String> chain;
+    private final List<Integer> idIndexes;
+    private final int valueIndex;
+
+
+    @SuppressWarnings("unchecked")
+    void set(Object[] row, Map<String, Object> target) {
+      Map<String, Object> current = target;
+      for (int i = 0; i < idIndexes.size(); ++i) {
+        String property = chain.get(i);
+        if (row[idIndexes.get(i)] == null) {
+          current.put(property, null);
+          return;
+        }
+        current = (Map<String, Object>) current.computeIfAbsent(property, p -> new HashMap<String, Object>());
+      }
+      current.put(chain.get(chain.size() - 1), row[valueIndex]);
+    }
+  }
+
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  private static class PlanKey {
+    private final Class<?> entityType;
+    private final Class<?> projection;
+  }
+
+}
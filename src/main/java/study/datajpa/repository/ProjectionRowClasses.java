@@ -0,0 +1,112 @@
+package study.datajpa.repository;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.field.FieldDescription;
+import net.bytebuddy.description.modifier.FieldManifestation;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.FieldAccessor;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.MethodCall;
+import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
+import net.bytebuddy.implementation.bytecode.StackManipulation;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import net.bytebuddy.implementation.bytecode.collection.ArrayAccess;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+import net.bytebuddy.implementation.bytecode.member.FieldAccess;
+import net.bytebuddy.implementation.bytecode.member.MethodReturn;
+import net.bytebuddy.implementation.bytecode.member.MethodVariableAccess;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+
+// Generates one class per projection interface: a final Object[] field and getters that return
+// values[i] directly, instead of a JDK proxy dispatching through a map.
+class ProjectionRowClasses {
+
+  private static final String VALUES = "values";
+  private static final TypeDescription.Generic OBJECT = TypeDescription.Generic.OfNonGenericType.ForLoadedType.of(Object.class);
+
+  private static final Map<Class<?>, MethodHandle> constructors = new ConcurrentHashMap<>();
+
+
+  // Getters of a projection interface in slot order.
+  static List<Method> getters(Class<?> projection) {
+    return Arrays.stream(projection.getMethods())
+                 .filter(m -> !m.isDefault() && m.getParameterCount() == 0 && m.getReturnType() != void.class)
+                 .collect(Collectors.toMap(Method::getName, m -> m, (a, b) -> a, TreeMap::new))
+                 .values()
+                 .stream()
+                 .collect(Collectors.toList());
+  }
+
+
+  // Constructor taking the Object[] of getter values, typed (Object[])Object.
+  static MethodHandle constructor(Class<?> projection) {
+    return constructors.computeIfAbsent(projection, ProjectionRowClasses::generate);
+  }
+
+
+  private static MethodHandle generate(Class<?> projection) {
+    try {
+      DynamicType.Builder<Object> builder =
+          new ByteBuddy().subclass(Object.class)
+                         .implement(projection)
+                         .name(projection.getName() + "$Row")
+                         .defineField(VALUES, Object[].class, Visibility.PRIVATE, FieldManifestation.FINAL)
+                         .defineConstructor(Visibility.PUBLIC)
+                         .withParameters(Object[].class)
+                         .intercept(MethodCall.invoke(Object.class.getConstructor())
+                                              .andThen(FieldAccessor.ofField(VALUES).setsArgumentAt(0)));
+
+      List<Method> getters = getters(projection);
+      for (int i = 0; i < getters.size(); ++i)
+        builder = builder.method(named(getters.get(i).getName()).and(takesArguments(0)))
+                         .intercept(new Implementation.Simple(slotGetter(i)));
+
+      Class<?> rowClass = builder.make()
+                                 .load(projection.getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+                                 .getLoaded();
+      return MethodHandles.publicLookup()
+                          .findConstructor(rowClass, MethodType.methodType(void.class, Object[].class))
+                          .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot generate projection row class for " + projection.getName(), e);
+    }
+  }
+
+
+  private static ByteCodeAppender slotGetter(int index) {
+    return (methodVisitor, context, method) -> {
+      FieldDescription.InDefinedShape values = context.getInstrumentedType()
+                                                      .getDeclaredFields()
+                                                      .filter(named(VALUES))
+                                                      .getOnly();
+      StackManipulation.Size size = new StackManipulation.Compound(
+          MethodVariableAccess.loadThis(),
+          FieldAccess.forField(values).read(),
+          IntegerConstant.forValue(index),
+          ArrayAccess.REFERENCE.load(),
+          Assigner.DEFAULT.assign(OBJECT, method.getReturnType(), Assigner.Typing.DYNAMIC),
+          MethodReturn.of(method.getReturnType())
+      ).apply(methodVisitor, context);
+      return new ByteCodeAppender.Size(size.getMaximalSize(), method.getStackSize());
+    };
+  }
+
+}
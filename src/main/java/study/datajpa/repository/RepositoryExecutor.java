@@ -0,0 +1,159 @@
+package study.datajpa.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.support.VirtualThreads;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+
+// Runs repository work off the caller's thread, each call in its own read-only transaction.
+// At most repository.async.max-concurrency calls run at once, by default half the Hikari maximum and
+// always below it, so synchronous requests keep connections of their own and waiting happens here, not
+// in getConnection(); at most queue-capacity more may wait, beyond that calls are rejected right away.
+// Work supplied from a worker runs inline in the worker's transaction: queueing it behind its caller
+// would need a second connection and could deadlock once all workers wait for nested work.
+// With repository.async.virtual-threads (by default repository.virtual-threads) each call gets a virtual
+// thread when the JDK has them.
+@Slf4j
+@Component
+public class RepositoryExecutor implements DisposableBean {
+
+  private static final ThreadLocal<Boolean> worker = new ThreadLocal<>();
+
+  private final TransactionTemplate readOnly;
+  private final int concurrency;
+  private final Semaphore admitted;
+  private final Semaphore running;
+  private final Executor virtualExecutor;
+  private final ThreadPoolTaskExecutor platformExecutor;
+
+
+  public RepositoryExecutor(DataSource dataSource, PlatformTransactionManager transactionManager,
+                            @Value("${repository.async.virtual-threads:${repository.virtual-threads:false}}") boolean virtualThreads,
+                            @Value("${repository.async.max-concurrency:0}") int maxConcurrency,
+                            @Value("${repository.async.queue-capacity:100}") int queueCapacity) {
+    this.concurrency = concurrency(connectionPoolSize(dataSource), maxConcurrency);
+    this.readOnly = new TransactionTemplate(transactionManager);
+    readOnly.setReadOnly(true);
+    this.admitted = new Semaphore(concurrency + queueCapacity);
+
+    ThreadFactory factory = virtualThreads ? VirtualThreads.factory("repository-") : null;
+    if (virtualThreads && factory == null)
+      log.warn("virtual threads are not available on this JDK, repository calls use platform threads");
+    if (factory != null) {
+      virtualExecutor = command -> factory.newThread(command).start();
+      running = new Semaphore(concurrency);
+      platformExecutor = null;
+    }
+    else {
+      platformExecutor = new ThreadPoolTaskExecutor();
+      platformExecutor.setCorePoolSize(concurrency);
+      platformExecutor.setMaxPoolSize(concurrency);
+      platformExecutor.setQueueCapacity(queueCapacity);
+      platformExecutor.setThreadNamePrefix("repository-");
+      platformExecutor.initialize();
+      virtualExecutor = null;
+      running = null;
+    }
+  }
+
+
+  public <T> CompletableFuture<T> supply(Supplier<T> work) {
+    if (isWorkerThread()) {
+      try {
+        return CompletableFuture.completedFuture(work.get());
+      }
+      catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    if (!admitted.tryAcquire())
+      throw new TaskRejectedException("repository executor is saturated");
+    try {
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          return run(work);
+        }
+        finally {
+          admitted.release();
+        }
+      }, virtualExecutor != null ? virtualExecutor : platformExecutor);
+    }
+    catch (RuntimeException e) {
+      admitted.release();
+      throw e;
+    }
+  }
+
+
+  // connections the executor may hold at once
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+
+  // for callers that would rather skip optional work (prefetches) than run it inline
+  public static boolean isWorkerThread() {
+    return worker.get() != null;
+  }
+
+
+  @Override
+  public void destroy() {
+    if (platformExecutor != null)
+      platformExecutor.shutdown();
+  }
+
+
+  private <T> T run(Supplier<T> work) {
+    if (running != null)
+      running.acquireUninterruptibly();  // parks a virtual thread, not a carrier
+    worker.set(Boolean.TRUE);
+    try {
+      return readOnly.execute(status -> work.get());
+    }
+    finally {
+      worker.remove();
+      if (running != null)
+        running.release();
+    }
+  }
+
+
+  private static int concurrency(int poolSize, int configured) {
+    int ceiling = Math.max(1, poolSize - 1);
+    if (configured <= 0)
+      return Math.max(1, poolSize / 2);
+    if (configured > ceiling)
+      log.warn("repository.async.max-concurrency {} leaves no connection for synchronous requests, using {}",
+               configured, ceiling);
+    return Math.min(configured, ceiling);
+  }
+
+
+  public static int connectionPoolSize(DataSource dataSource) {
+    try {
+      if (dataSource.isWrapperFor(HikariDataSource.class))
+        return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+    }
+    catch (SQLException e) {
+      log.debug("cannot unwrap the connection pool", e);
+    }
+    return 10;  // Hikari's default
+  }
+
+}
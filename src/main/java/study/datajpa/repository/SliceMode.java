@@ -0,0 +1,9 @@
+package study.datajpa.repository;
+
+
+public enum SliceMode {
+
+  PLAIN,     // limit + 1 rows per request, nothing kept
+  PREFETCH   // also load the next slice in the background, for clients scrolling forward
+
+}
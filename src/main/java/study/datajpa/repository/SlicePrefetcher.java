@@ -0,0 +1,178 @@
+package study.datajpa.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+import study.datajpa.support.TableWriteTracker;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+
+// Serves a slice and, when it has a next one, loads that next slice on the RepositoryExecutor into a
+// short-lived cache keyed by its continuation (query, parameters, next pageable). A prefetched slice is
+// handed out once; it is dropped if one of the query's tables was written since it was started, which
+// includes writes that had already run but not yet committed when it started (TableWriteTracker bumps
+// again after the commit). A prefetch still running is waited for up to repository.slice-prefetch.wait,
+// then the slice is loaded on the caller's thread.
+// At most repository.slice-prefetch.concurrency prefetches run at once, others are skipped.
+// Only for detached results such as DTOs: prefetched slices come from another transaction.
+@Slf4j
+@Component
+public class SlicePrefetcher {
+
+  private final RepositoryExecutor repositoryExecutor;
+  private final TableWriteTracker writeTracker;
+  private final MeterRegistry meterRegistry;
+  private final Semaphore permits;
+  private final long waitNanos;
+  private final Cache<Continuation, Prefetch> prefetched;
+  private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+
+  public SlicePrefetcher(RepositoryExecutor repositoryExecutor, TableWriteTracker writeTracker,
+                         MeterRegistry meterRegistry,
+                         @Value("${repository.slice-prefetch.ttl:30s}") Duration ttl,
+                         @Value("${repository.slice-prefetch.max-entries:1000}") long maxEntries,
+                         @Value("${repository.slice-prefetch.concurrency:2}") int concurrency,
+                         @Value("${repository.slice-prefetch.wait:200ms}") Duration wait) {
+    this.repositoryExecutor = repositoryExecutor;
+    this.writeTracker = writeTracker;
+    this.meterRegistry = meterRegistry;
+    this.permits = new Semaphore(concurrency);
+    this.waitNanos = wait.toNanos();
+    this.prefetched = Caffeine.newBuilder()
+                              .maximumSize(maxEntries)
+                              .expireAfterWrite(ttl)
+                              .recordStats()
+                              .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, prefetched, "slice.prefetch");
+  }
+
+
+  // tables: the ones the query reads, for staleness checks
+  @SuppressWarnings("unchecked")
+  public <T> Slice<T> slice(String name, List<String> tables, List<Object> parameters, Pageable pageable,
+                            Function<Pageable, Slice<T>> loader) {
+    Meters m = meters.computeIfAbsent(name, k -> new Meters(meterRegistry, name));
+    Continuation key = new Continuation(name, parameters, pageable);
+    Prefetch prefetch = prefetched.asMap().remove(key);
+
+    Slice<T> slice = null;
+    if (prefetch == null)
+      m.miss.increment();
+    else if (prefetch.writeVersion != writeVersion(tables))
+      m.stale.increment();
+    else {
+      try {
+        slice = (Slice<T>) prefetch.future.get(waitNanos, TimeUnit.NANOSECONDS);  // waiting beats a second query
+        m.hit.increment();
+      }
+      catch (ExecutionException e) {
+        log.debug("prefetch for {} failed, loading again", name, e.getCause());
+        m.miss.increment();
+      }
+      catch (TimeoutException e) {
+        log.debug("prefetch for {} is still running, loading again", name);
+        m.miss.increment();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        m.miss.increment();
+      }
+    }
+    if (slice == null)
+      slice = loader.apply(pageable);
+
+    if (slice.hasNext())
+      prefetch(new Continuation(name, parameters, slice.nextPageable()), tables, loader, m);
+    return slice;
+  }
+
+
+  private <T> void prefetch(Continuation key, List<String> tables, Function<Pageable, Slice<T>> loader, Meters m) {
+    if (prefetched.getIfPresent(key) != null)
+      return;
+    if (RepositoryExecutor.isWorkerThread() || !permits.tryAcquire()) {  // on a worker it would run inline
+      m.skipped.increment();
+      return;
+    }
+    long version = writeVersion(tables);
+    try {
+      CompletableFuture<Slice<T>> future = repositoryExecutor.supply(() -> loader.apply(key.pageable));
+      future.whenComplete((slice, e) -> permits.release());
+      prefetched.put(key, new Prefetch(future, version));
+    }
+    catch (TaskRejectedException e) {
+      permits.release();
+      m.skipped.increment();
+    }
+  }
+
+
+  private long writeVersion(List<String> tables) {
+    long version = 0;
+    for (String table : tables)
+      version += writeTracker.version(table);  // versions only grow, so the sum changes with any of them
+    return version;
+  }
+
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  private static class Continuation {
+    private final String name;
+    private final List<Object> parameters;
+    private final Pageable pageable;
+  }
+
+
+  @RequiredArgsConstructor
+  private static class Prefetch {
+    private final CompletableFuture<? extends Slice<?>> future;
+    private final long writeVersion;
+  }
+
+
+  private static class Meters {
+
+    private final Counter hit;
+    private final Counter miss;
+    private final Counter stale;
+    private final Counter skipped;
+
+
+    Meters(MeterRegistry registry, String name) {
+      hit = counter(registry, name, "hit");
+      miss = counter(registry, name, "miss");
+      stale = counter(registry, name, "stale");
+      skipped = counter(registry, name, "skipped");
+    }
+
+
+    private static Counter counter(MeterRegistry registry, String name, String result) {
+      return Counter.builder("repository.slice.prefetch")
+                    .tags("query", name, "result", result)
+                    .register(registry);
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+package study.datajpa.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mapping.PropertyPath;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+// Bounded cache of JPQL rendered from StructuredSpecification fingerprints, for selects (optionally
+// sorted) and counts. A hit skips building and rendering the Criteria tree; the JPQL string is identical
+// for every call of the same shape, so Hibernate's query plan cache and the driver's statement cache hit
+// as well.
+@Component
+public class SpecificationPlanCache {
+
+  private final Cache<String, String> plans;
+
+
+  public SpecificationPlanCache(@Value("${repository.spec.plan-cache-size:500}") long maxSize,
+                                MeterRegistry meterRegistry) {
+    this.plans = Caffeine.newBuilder()
+                         .maximumSize(maxSize)
+                         .recordStats()
+                         .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, plans, "specification.plans");
+  }
+
+
+  public <T> TypedQuery<T> query(EntityManager em, Class<T> type, StructuredSpecification<T> spec) {
+    return query(em, type, spec, Sort.unsorted());
+  }
+
+
+  // null when the sort cannot be rendered (nested properties, null handling), callers then fall back
+  // to the Criteria API; a property the type does not have throws PropertyReferenceException before
+  // it reaches the JPQL or the cache
+  public <T> TypedQuery<T> query(EntityManager em, Class<T> type, StructuredSpecification<T> spec, Sort sort) {
+    for (Sort.Order order : sort) {
+      PropertyPath path = PropertyPath.from(order.getProperty(), type);
+      if (path.hasNext() || !path.getSegment().equals(order.getProperty())
+          || order.getNullHandling() != Sort.NullHandling.NATIVE)
+        return null;
+    }
+    String jpql = plans.get(type.getName() + spec.fingerprint() + (sort.isSorted() ? " " + sort : ""),
+                            key -> render(em, type, spec, "m", orderBy(sort)));
+    return bind(em.createQuery(jpql, type), spec);
+  }
+
+
+  public <T> TypedQuery<Long> count(EntityManager em, Class<T> type, StructuredSpecification<T> spec) {
+    String jpql = plans.get("count " + type.getName() + spec.fingerprint(),
+                            key -> render(em, type, spec, "count(m)", ""));
+    return bind(em.createQuery(jpql, Long.class), spec);
+  }
+
+
+  private static <Q extends TypedQuery<?>> Q bind(Q query, StructuredSpecification<?> spec) {
+    List<Object> values = spec.values();
+    for (int i = 0; i < values.size(); ++i)
+      query.setParameter(i + 1, values.get(i));
+    return query;
+  }
+
+
+  private static String render(EntityManager em, Class<?> type, StructuredSpecification<?> spec, String select,
+                               String orderBy) {
+    StructuredSpecification.Rendering rendering = new StructuredSpecification.Rendering();
+    String where = spec.render(rendering);
+    StringBuilder jpql = new StringBuilder("select ").append(select)
+                                                     .append(" from ")
+                                                     .append(em.getMetamodel().entity(type).getName())
+                                                     .append(" m");
+    for (String join : rendering.getJoins())
+      jpql.append(' ').append(join);
+    if (where != null)
+      jpql.append(" where ").append(where);
+    return jpql.append(orderBy).toString();
+  }
+
+
+  private static String orderBy(Sort sort) {
+    if (sort.isUnsorted())
+      return "";
+    return sort.stream()
+               .map(o -> (o.isIgnoreCase() ? "lower(m." + o.getProperty() + ")" : "m." + o.getProperty()) +
+                         (o.isAscending() ? " asc" : " desc"))
+               .collect(Collectors.joining(", ", " order by ", ""));
+  }
+
+}
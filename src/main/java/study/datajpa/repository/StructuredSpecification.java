@@ -0,0 +1,320 @@
+package study.datajpa.repository;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+// A Specification that keeps its structure, so SpecificationPlanCache can key the rendered JPQL on the
+// fingerprint (paths and operators, no values) and only bind values per call. Composing with a plain
+// lambda Specification still works, but the result is a plain Specification and goes through Criteria.
+public interface StructuredSpecification<T> extends Specification<T> {
+
+  String fingerprint();
+
+  List<Object> values();
+
+  // JPQL condition on alias "m", or null for no condition; association paths are added to the joins
+  String render(Rendering rendering);
+
+
+  static <T> StructuredSpecification<T> all() {
+    return new Composite<>(" and ", List.of());
+  }
+
+
+  // "is null" for a null value
+  static <T> StructuredSpecification<T> equal(String path, Object value) {
+    return value == null ? isNull(path) : new Condition<>(path, "=", value);
+  }
+
+
+  static <T> StructuredSpecification<T> greaterThanOrEqualTo(String path, Comparable<?> value) {
+    return new Condition<>(path, ">=", required(path, value));
+  }
+
+
+  // "is null" for a null value
+  static <T> StructuredSpecification<T> equalIgnoringCase(String path, String value) {
+    return value == null ? isNull(path) : new Condition<>(path, Condition.EQUAL_IGNORING_CASE, value.toLowerCase());
+  }
+
+
+  // pattern escaped with '\'
+  static <T> StructuredSpecification<T> like(String path, String pattern, boolean ignoreCase) {
+    required(path, pattern);
+    return ignoreCase ? new Condition<>(path, Condition.LIKE_IGNORING_CASE, pattern.toLowerCase())
+                      : new Condition<>(path, Condition.LIKE, pattern);
+  }
+
+
+  static <T> StructuredSpecification<T> in(String path, Collection<?> values) {
+    return new Condition<>(path, Condition.IN, required(path, values));
+  }
+
+
+  static <T> StructuredSpecification<T> isNull(String path) {
+    return new Condition<>(path, Condition.IS_NULL, null);
+  }
+
+
+  static <T> StructuredSpecification<T> isNotNull(String path) {
+    return new Condition<>(path, Condition.IS_NOT_NULL, null);
+  }
+
+
+  static <T> StructuredSpecification<T> never() {
+    return new Never<>();
+  }
+
+
+  // structured when both sides are
+  @Override
+  default Specification<T> and(Specification<T> other) {
+    if (other instanceof StructuredSpecification)
+      return new Composite<>(" and ", List.of(this, (StructuredSpecification<T>) other));
+    return other == null ? this : Specification.super.and(other);
+  }
+
+
+  @Override
+  default Specification<T> or(Specification<T> other) {
+    if (other instanceof StructuredSpecification)
+      return new Composite<>(" or ", List.of(this, (StructuredSpecification<T>) other));
+    return other == null ? this : Specification.super.or(other);
+  }
+
+
+  private static <V> V required(String path, V value) {
+    if (value == null)
+      throw new IllegalArgumentException("No value to compare " + path + " with");
+    return value;
+  }
+
+
+  class Rendering {
+
+    private final List<String> joins = new ArrayList<>();
+    private int parameters;
+
+
+    String alias(String path) {
+      int dot = path.lastIndexOf('.');
+      if (dot < 0)
+        return "m";
+      String association = path.substring(0, dot);
+      String join = "join m." + association + " " + joinAlias(association);
+      if (!joins.contains(join))
+        joins.add(join);
+      return joinAlias(association);
+    }
+
+
+    String nextParameter() {
+      return "?" + ++parameters;
+    }
+
+
+    List<String> getJoins() {
+      return joins;
+    }
+
+
+    private static String joinAlias(String association) {
+      return "j_" + association.replace('.', '_');
+    }
+  }
+
+
+  class Condition<T> implements StructuredSpecification<T> {
+
+    private static final String EQUAL_IGNORING_CASE = " ieq";
+    private static final String LIKE = " like";
+    private static final String LIKE_IGNORING_CASE = " ilike";
+    private static final String IN = " in";
+    private static final String IS_NULL = " is null";
+    private static final String IS_NOT_NULL = " is not null";
+
+    private final String path;
+    private final String operator;
+    private final Object value;
+
+
+    Condition(String path, String operator, Object value) {
+      this.path = path;
+      this.operator = operator;
+      this.value = value;
+    }
+
+
+    @Override
+    public String fingerprint() {
+      return path + operator;
+    }
+
+
+    @Override
+    public List<Object> values() {
+      return value == null ? List.of() : Collections.singletonList(value);
+    }
+
+
+    @Override
+    public String render(Rendering rendering) {
+      String attribute = rendering.alias(path) + "." + path.substring(path.lastIndexOf('.') + 1);
+      switch (operator) {
+        case EQUAL_IGNORING_CASE:
+          return "lower(" + attribute + ") = " + rendering.nextParameter();
+        case LIKE:
+          return attribute + " like " + rendering.nextParameter() + " escape '\\'";
+        case LIKE_IGNORING_CASE:
+          return "lower(" + attribute + ") like " + rendering.nextParameter() + " escape '\\'";
+        case IN:
+          return attribute + " in (" + rendering.nextParameter() + ")";
+        case IS_NULL:
+          return attribute + " is null";
+        case IS_NOT_NULL:
+          return attribute + " is not null";
+        default:
+          return attribute + " " + operator + " " + rendering.nextParameter();
+      }
+    }
+
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
+      Path attribute = path(root, path);
+      switch (operator) {
+        case "=":
+          return builder.equal(attribute, value);
+        case EQUAL_IGNORING_CASE:
+          return builder.equal(builder.lower(attribute), value);
+        case LIKE:
+          return builder.like(attribute, (String) value, '\\');
+        case LIKE_IGNORING_CASE:
+          return builder.like(builder.lower(attribute), (String) value, '\\');
+        case IN:
+          return attribute.in((Collection<?>) value);
+        case IS_NULL:
+          return builder.isNull(attribute);
+        case IS_NOT_NULL:
+          return builder.isNotNull(attribute);
+        default:
+          return builder.greaterThanOrEqualTo(attribute, (Comparable) value);
+      }
+    }
+
+
+    // inner joins, one per association, as render() does
+    private static Path<?> path(Root<?> root, String path) {
+      String[] parts = path.split("\\.");
+      From<?, ?> from = root;
+      for (int i = 0; i < parts.length - 1; ++i) {
+        String part = parts[i];
+        From<?, ?> current = from;
+        from = current.getJoins()
+                      .stream()
+                      .filter(j -> j.getAttribute().getName().equals(part) && j.getJoinType() == JoinType.INNER)
+                      .findFirst()
+                      .map(j -> (Join<?, ?>) j)
+                      .orElseGet(() -> current.join(part, JoinType.INNER));
+      }
+      return from.get(parts[parts.length - 1]);
+    }
+  }
+
+
+  class Composite<T> implements StructuredSpecification<T> {
+
+    private final String operator;
+    private final List<StructuredSpecification<T>> parts;
+
+
+    Composite(String operator, List<StructuredSpecification<T>> parts) {
+      this.operator = operator;
+      this.parts = parts;
+    }
+
+
+    @Override
+    public String fingerprint() {
+      return parts.stream()
+                  .map(StructuredSpecification::fingerprint)
+                  .collect(Collectors.joining(operator, "(", ")"));
+    }
+
+
+    @Override
+    public List<Object> values() {
+      return parts.stream()
+                  .flatMap(p -> p.values().stream())
+                  .collect(Collectors.toList());
+    }
+
+
+    @Override
+    public String render(Rendering rendering) {
+      List<String> conditions = new ArrayList<>();
+      for (StructuredSpecification<T> part : parts) {
+        String condition = part.render(rendering);
+        if (condition != null)
+          conditions.add(condition);
+      }
+      return conditions.isEmpty() ? null : "(" + String.join(operator, conditions) + ")";
+    }
+
+
+    @Override
+    public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
+      Predicate[] predicates = parts.stream()
+                                    .map(p -> p.toPredicate(root, query, builder))
+                                    .filter(p -> p != null)
+                                    .toArray(Predicate[]::new);
+      if (predicates.length == 0)
+        return null;
+      return operator.equals(" and ") ? builder.and(predicates) : builder.or(predicates);
+    }
+  }
+
+
+  // matches nothing, for a condition already known to be false
+  class Never<T> implements StructuredSpecification<T> {
+
+    @Override
+    public String fingerprint() {
+      return "never";
+    }
+
+
+    @Override
+    public List<Object> values() {
+      return List.of();
+    }
+
+
+    @Override
+    public String render(Rendering rendering) {
+      return "1 = 0";
+    }
+
+
+    @Override
+    public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
+      return builder.disjunction();
+    }
+  }
+
+}
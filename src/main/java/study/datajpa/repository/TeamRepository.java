@@ -4,5 +4,6 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import study.datajpa.entity.Team;
 
 
-public interface TeamRepository extends JpaRepository<Team, Long> {
+public interface TeamRepository extends JpaRepository<Team, Long>,
+                                        TeamRepositoryCustom {
 }
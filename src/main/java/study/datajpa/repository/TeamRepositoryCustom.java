@@ -0,0 +1,14 @@
+package study.datajpa.repository;
+
+import study.datajpa.entity.Team;
+
+import java.util.List;
+
+
+public interface TeamRepositoryCustom {
+
+  BatchInsertSummary saveAllBatched(Iterable<Team> teams);
+
+  MultiGetResult<Long, Team> multiGetById(List<Long> ids);
+
+}
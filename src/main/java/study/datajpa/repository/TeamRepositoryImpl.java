@@ -0,0 +1,27 @@
+package study.datajpa.repository;
+
+import lombok.RequiredArgsConstructor;
+import study.datajpa.entity.Team;
+
+import java.util.List;
+
+
+@RequiredArgsConstructor
+public class TeamRepositoryImpl implements TeamRepositoryCustom {
+
+  private final BatchInsertTemplate batchInsertTemplate;
+  private final MultiGetTemplate multiGetTemplate;
+
+
+  @Override
+  public BatchInsertSummary saveAllBatched(Iterable<Team> teams) {
+    return batchInsertTemplate.persistAll(teams);
+  }
+
+
+  @Override
+  public MultiGetResult<Long, Team> multiGetById(List<Long> ids) {
+    return multiGetTemplate.get(Team.class, "id", Team::getId, ids);
+  }
+
+}
@@ -0,0 +1,94 @@
+package study.datajpa.repository;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+
+// Lowercase trigrams of a string property to the ids holding them. candidates() returns a superset:
+// trigrams are added as soon as a value is flushed and only dropped once a later value is committed,
+// so rolled-back or superseded values leave extra ids behind but a current value is never missed.
+// Ids marked unknown (rewritten by a bulk statement) are candidates for every needle until reloaded.
+class TrigramIndex {
+
+  private static final int N = 3;
+
+  private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+  private final Map<Long, String> committed = new ConcurrentHashMap<>();
+  private final Set<Long> unknown = ConcurrentHashMap.newKeySet();
+
+
+  // a flushed, not yet committed value
+  void add(Long id, String value) {
+    if (value == null)
+      return;
+    for (String trigram : trigrams(value))
+      postings.computeIfAbsent(trigram, t -> ConcurrentHashMap.newKeySet()).add(id);
+  }
+
+
+  // a committed value, null once deleted; trigrams only the previous committed value had are dropped
+  void commit(Long id, String value) {
+    add(id, value);
+    String previous = value == null ? committed.remove(id) : committed.put(id, value);
+    if (previous == null)
+      return;
+    Set<String> kept = value == null ? Set.of() : trigrams(value);
+    for (String trigram : trigrams(previous)) {
+      Set<Long> ids = postings.get(trigram);
+      if (ids != null && !kept.contains(trigram))
+        ids.remove(id);
+    }
+  }
+
+
+  // a value read from the database, which may already be older than one committed meanwhile
+  void load(Long id, String value) {
+    add(id, value);
+    if (value != null)
+      committed.putIfAbsent(id, value);
+    unknown.remove(id);
+  }
+
+
+  void markUnknown(Collection<Long> ids) {
+    unknown.addAll(ids);
+  }
+
+
+  void forget(Long id) {
+    unknown.remove(id);
+  }
+
+
+  // ids whose value may contain the needle, or null when the needle is too short to narrow anything
+  Set<Long> candidates(String needle) {
+    if (needle.length() < N)
+      return null;
+    List<Set<Long>> lists = trigrams(needle).stream()
+                                            .map(t -> postings.getOrDefault(t, Set.of()))
+                                            .sorted(Comparator.comparingInt(Set::size))
+                                            .collect(Collectors.toList());
+    Set<Long> candidates = new HashSet<>(lists.get(0));
+    for (int i = 1; i < lists.size() && !candidates.isEmpty(); ++i)
+      candidates.retainAll(lists.get(i));
+    candidates.addAll(unknown);
+    return candidates;
+  }
+
+
+  static Set<String> trigrams(String value) {
+    String lower = value.toLowerCase(Locale.ROOT);
+    Set<String> trigrams = new HashSet<>();
+    for (int i = 0; i + N <= lower.length(); ++i)
+      trigrams.add(lower.substring(i, i + N));
+    return trigrams;
+  }
+
+}
@@ -0,0 +1,225 @@
+package study.datajpa.repository;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.auditing.AuditingHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import study.datajpa.support.ChangeEventOutbox;
+import study.datajpa.support.EntityChange;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+
+// Insert-or-update by id in one statement per chunk of the JDBC batch size, instead of merge()'s
+// select followed by an insert or update per entity. Existing rows get their updatable columns
+// overwritten; insert-only columns (@Column(updatable = false)) keep the stored value.
+// Entity listeners do not run, so @CreatedDate and friends are set here through the auditing handler,
+// and the rows are recorded in the ChangeEventOutbox as updates, whether they were inserted or not.
+// Entities must be mapped to a single table with basic, single-column properties and no @Version;
+// dialects without a known upsert fall back to merge() per entity.
+@Component
+public class UpsertTemplate {
+
+  @PersistenceContext
+  private EntityManager em;
+
+  private final ObjectProvider<AuditingHandler> auditingHandler;
+  private final ChangeEventOutbox outbox;
+  private final int chunkSize;
+
+
+  public UpsertTemplate(ObjectProvider<AuditingHandler> auditingHandler, ChangeEventOutbox outbox,
+                        @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}") int chunkSize) {
+    this.auditingHandler = auditingHandler;
+    this.outbox = outbox;
+    this.chunkSize = chunkSize;
+  }
+
+
+  @Transactional
+  public <T> BatchInsertSummary upsertAll(Class<T> type, Iterable<? extends T> entities) {
+    long start = System.nanoTime();
+    SessionImplementor session = em.unwrap(SessionImplementor.class);
+    SessionFactoryImplementor factory = session.getFactory();
+    if (!(factory.getMetamodel().entityPersister(type) instanceof SingleTableEntityPersister))
+      throw new IllegalArgumentException(type.getSimpleName() + " is not mapped to a single table");
+    SingleTableEntityPersister persister = (SingleTableEntityPersister) factory.getMetamodel().entityPersister(type);
+    if (persister.isVersioned())
+      throw new IllegalArgumentException("Upserts would bypass the @Version check of " + type.getSimpleName());
+
+    // the last occurrence of an id wins, as it would with one merge() after another
+    Map<Serializable, T> byId = new LinkedHashMap<>();
+    AuditingHandler auditing = auditingHandler.getIfAvailable();
+    for (T entity : entities) {
+      if (auditing != null)
+        auditing.markCreated(entity);
+      byId.put(identifier(persister, entity, session), entity);
+    }
+    if (byId.isEmpty())
+      return new BatchInsertSummary(0, 0, System.nanoTime() - start);
+
+    Dialect dialect = factory.getJdbcServices().getDialect();
+    Table table = Table.of(persister);
+    if (Statements.upsert(dialect, table, 1) == null) {
+      byId.values().forEach(em::merge);
+      return new BatchInsertSummary(byId.size(), byId.size(), System.nanoTime() - start);
+    }
+
+    em.flush();  // pending changes must reach the database before the rows are rewritten underneath them
+    BulkCacheCleanup.register(session, persister, byId.keySet(), false);
+    List<T> rows = new ArrayList<>(byId.values());
+    int chunks = 0;
+    for (int from = 0; from < rows.size(); from += chunkSize) {
+      List<T> chunk = rows.subList(from, Math.min(from + chunkSize, rows.size()));
+      List<Type> types = new ArrayList<>();
+      List<Object> parameters = new ArrayList<>();
+      for (T entity : chunk) {
+        types.add(persister.getIdentifierType());
+        parameters.add(identifier(persister, entity, session));
+        Object[] values = persister.getPropertyValues(entity);
+        for (int property : table.properties) {
+          types.add(persister.getPropertyTypes()[property]);
+          parameters.add(values[property]);
+        }
+      }
+      executeUpdate(session, Statements.upsert(dialect, table, chunk.size()), types, parameters);
+      List<Object> ids = chunk.stream()
+                              .map(entity -> identifier(persister, entity, session))
+                              .collect(Collectors.toList());
+      outbox.recordWhere(type, EntityChange.Kind.UPDATE, table.id + " in (" +  // inserted or updated, either way
+                         String.join(", ", Collections.nCopies(ids.size(), "?")) + ")",
+                         Collections.nCopies(ids.size(), persister.getIdentifierType()), ids);
+      ++chunks;
+    }
+
+    for (Serializable id : byId.keySet()) {
+      Object managed = session.getPersistenceContextInternal().getEntity(session.generateEntityKey(id, persister));
+      if (managed != null)
+        em.detach(managed);
+    }
+
+    return new BatchInsertSummary(rows.size(), chunks, System.nanoTime() - start);
+  }
+
+
+  // the EntityPersister overload; SessionImplementor alone also matches the deprecated ClassMetadata one
+  private static Serializable identifier(SingleTableEntityPersister persister, Object entity,
+                                         SharedSessionContractImplementor session) {
+    return persister.getIdentifier(entity, session);
+  }
+
+
+  // bound through the mapped types, so enums, converters and custom types are written as Hibernate would
+  private static void executeUpdate(SessionImplementor session, String sql, List<Type> types, List<Object> parameters) {
+    JdbcCoordinator jdbc = session.getJdbcCoordinator();
+    PreparedStatement ps = jdbc.getStatementPreparer().prepareStatement(sql);
+    try {
+      for (int i = 0; i < parameters.size(); ++i)
+        types.get(i).nullSafeSet(ps, parameters.get(i), i + 1, session);  // single-column, see Table.of
+      jdbc.getResultSetReturn().executeUpdate(ps);
+    }
+    catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "upsert failed", sql);
+    }
+    finally {
+      jdbc.getLogicalConnection().getResourceRegistry().release(ps);
+      jdbc.afterStatementExecution();
+    }
+  }
+
+
+  static class Table {
+
+    final String name;
+    final String id;
+    final List<String> columns;  // id first, then one per property
+    final List<String> updatable;
+    final int[] properties;
+
+
+    private Table(String name, String id, List<String> columns, List<String> updatable, int[] properties) {
+      this.name = name;
+      this.id = id;
+      this.columns = columns;
+      this.updatable = updatable;
+      this.properties = properties;
+    }
+
+
+    static Table of(SingleTableEntityPersister persister) {
+      String id = persister.getIdentifierColumnNames()[0];
+      List<String> columns = new ArrayList<>(List.of(id));
+      List<String> updatable = new ArrayList<>();
+      List<Integer> properties = new ArrayList<>();
+      for (int i = 0; i < persister.getPropertyNames().length; ++i) {
+        String property = persister.getPropertyNames()[i];
+        String[] propertyColumns = persister.getPropertyColumnNames(i);
+        if (persister.getPropertyTypes()[i].isAssociationType() || propertyColumns.length != 1)
+          throw new IllegalArgumentException("Cannot upsert property " + property);
+        columns.add(propertyColumns[0]);
+        if (persister.getPropertyUpdateability()[i])
+          updatable.add(propertyColumns[0]);
+        properties.add(i);
+      }
+      return new Table(persister.getTableName(), id, columns, updatable,
+                       properties.stream().mapToInt(Integer::intValue).toArray());
+    }
+  }
+
+
+  static class Statements {
+
+    // null when the dialect has no known upsert
+    static String upsert(Dialect dialect, Table table, int rows) {
+      String columns = String.join(", ", table.columns);
+      String row = "(" + String.join(", ", Collections.nCopies(table.columns.size(), "?")) + ")";
+      String values = String.join(", ", Collections.nCopies(rows, row));
+
+      if (dialect instanceof H2Dialect) {
+        String sql = "merge into " + table.name + " t using (values " + values + ") s(" + columns + ")" +
+                     " on t." + table.id + " = s." + table.id;
+        if (!table.updatable.isEmpty())
+          sql += " when matched then update set " + assignments(table, c -> c + " = s." + c);
+        return sql + " when not matched then insert (" + columns + ") values (" +
+               table.columns.stream().map(c -> "s." + c).collect(Collectors.joining(", ")) + ")";
+      }
+      String insert = "insert into " + table.name + " (" + columns + ") values " + values;
+      if (dialect instanceof PostgreSQL81Dialect)
+        return insert + " on conflict (" + table.id + ") do " +
+               (table.updatable.isEmpty() ? "nothing" : "update set " + assignments(table, c -> c + " = excluded." + c));
+      if (dialect instanceof MySQLDialect)
+        return insert + " on duplicate key update " +
+               (table.updatable.isEmpty() ? table.id + " = " + table.id
+                                          : assignments(table, c -> c + " = values(" + c + ")"));
+      return null;
+    }
+
+
+    private static String assignments(Table table, UnaryOperator<String> assignment) {
+      return table.updatable.stream().map(assignment).collect(Collectors.joining(", "));
+    }
+  }
+
+}
@@ -0,0 +1,51 @@
+package study.datajpa.support;
+
+import org.springframework.data.auditing.DateTimeProvider;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAccessor;
+import java.util.Optional;
+
+
+// Audit timestamps at millisecond resolution: every write in the same millisecond shares one
+// LocalDateTime, and the zone is resolved once instead of on every LocalDateTime.now().
+@Component
+public class AuditClock implements DateTimeProvider {
+
+  private final ZoneId zone = ZoneId.systemDefault();
+  private volatile Tick last = new Tick(Long.MIN_VALUE, null);
+
+
+  public LocalDateTime now() {
+    long millis = System.currentTimeMillis();
+    Tick tick = last;
+    if (tick.millis != millis) {
+      tick = new Tick(millis, LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), zone));
+      last = tick;
+    }
+    return tick.time;
+  }
+
+
+  @Override
+  public Optional<TemporalAccessor> getNow() {
+    return Optional.of(now());
+  }
+
+
+  private static class Tick {
+
+    private final long millis;
+    private final LocalDateTime time;
+
+
+    Tick(long millis, LocalDateTime time) {
+      this.millis = millis;
+      this.time = time;
+    }
+  }
+
+}
@@ -0,0 +1,30 @@
+package study.datajpa.support;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+
+@Component
+@RequiredArgsConstructor
+public class AuditorFilter extends OncePerRequestFilter {
+
+  private final CachedAuditor auditor;
+
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    CachedAuditor.Scope scope = auditor.open(request.getRemoteUser());
+    try (scope) {
+      chain.doFilter(request, response);
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+package study.datajpa.support;
+
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+// The auditor is resolved once per scope (one per HTTP request, see AuditorFilter) and once per
+// thread outside of one, instead of once per audited write. Generated ids come from ThreadLocalRandom,
+// which unlike UUID.randomUUID() does not contend on a shared SecureRandom.
+@Component
+public class CachedAuditor implements AuditorAware<String> {
+
+  private final ThreadLocal<String> threadAuditor = ThreadLocal.withInitial(CachedAuditor::generate);
+  private final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+
+  // auditor null generates one for the scope
+  public Scope open(String auditor) {
+    Scope scope = new Scope(auditor == null ? generate() : auditor, current.get());
+    current.set(scope);
+    return scope;
+  }
+
+
+  public String current() {
+    Scope scope = current.get();
+    return scope != null ? scope.auditor : threadAuditor.get();
+  }
+
+
+  @Override
+  public Optional<String> getCurrentAuditor() {
+    return Optional.of(current());
+  }
+
+
+  private static String generate() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return new UUID(random.nextLong(), random.nextLong()).toString();
+  }
+
+
+  public class Scope implements AutoCloseable {
+
+    private final String auditor;
+    private final Scope parent;
+
+
+    private Scope(String auditor, Scope parent) {
+      this.auditor = auditor;
+      this.parent = parent;
+    }
+
+
+    @Override
+    public void close() {
+      if (parent != null)
+        current.set(parent);
+      else
+        current.remove();
+    }
+  }
+
+}
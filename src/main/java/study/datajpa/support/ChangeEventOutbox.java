@@ -0,0 +1,215 @@
+package study.datajpa.support;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Hibernate;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import study.datajpa.entity.ChangeEventListener;
+
+import javax.persistence.EntityListeners;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// Transactional outbox (repository.outbox.enabled) for the entities listening with ChangeEventListener.
+// Changes flushed in a transaction are collected and written to change_event as one JDBC batch from
+// Hibernate's before-completion hook, which runs after the final flush and only on commit, so the
+// records commit or roll back with the changes. Bulk statements record their rows set-based through
+// recordWhere(), or bulkUpdating() as reported by EntityChangeDispatcher, one "insert ... select" per
+// statement. ChangeEventRelay delivers the rows.
+@Component
+public class ChangeEventOutbox implements EntityChangeObserver {
+
+  private static final String INSERT =
+      "insert into change_event (entity_type, entity_id, kind, version, occurred_at) values (?, ?, ?, ?, ?)";
+
+  @PersistenceContext
+  private EntityManager em;
+
+  private final boolean enabled;
+  private final AuditClock clock;
+  private final Map<Class<?>, Boolean> tracked = new ConcurrentHashMap<>();
+
+
+  public ChangeEventOutbox(@Value("${repository.outbox.enabled:false}") boolean enabled, AuditClock clock) {
+    this.enabled = enabled;
+    this.clock = clock;
+  }
+
+
+  public void record(Object entity, EntityChange.Kind kind) {
+    if (!enabled)
+      return;
+    SessionImplementor session = em.unwrap(SessionImplementor.class);
+    EntityPersister persister = session.getFactory().getMetamodel().entityPersister(Hibernate.getClass(entity));
+    Object version = persister.isVersioned() ? persister.getVersion(entity) : null;
+    Record record = new Record(persister.getMappedClass().getSimpleName(),
+                               String.valueOf(persister.getIdentifier(entity, session)), kind,
+                               version instanceof Number ? ((Number) version).longValue() : null);
+    pending(session).records.add(record);
+  }
+
+
+  // Records the rows of a tracked entity's table matching an SQL condition, for statements that bypass
+  // the persistence context: after an update, before a delete. Needs a surrounding transaction.
+  public void recordWhere(Class<?> type, EntityChange.Kind kind, String where, List<Type> types,
+                          List<?> parameters) {
+    recordWhere(type, kind, 0, where, types, parameters);
+  }
+
+
+  // recorded before the statement, with the version it is about to write
+  @Override
+  public void bulkUpdating(Class<?> type, String where, List<Type> types, List<?> parameters) {
+    recordWhere(type, EntityChange.Kind.UPDATE, 1, where, types, parameters);
+  }
+
+
+  private void recordWhere(Class<?> type, EntityChange.Kind kind, int versionIncrement, String where,
+                           List<Type> types, List<?> parameters) {
+    if (!enabled || !isTracked(type))
+      return;
+    SessionImplementor session = em.unwrap(SessionImplementor.class);
+    SingleTableEntityPersister persister =
+        (SingleTableEntityPersister) session.getFactory().getMetamodel().entityPersister(type);
+    String version = !persister.isVersioned() ? "null"
+                     : persister.getPropertyColumnNames(persister.getVersionProperty())[0] +
+                       (versionIncrement == 0 ? "" : " + " + versionIncrement);
+    String stringType = session.getJdbcServices().getDialect().getCastTypeName(Types.VARCHAR);  // "char" on MySQL
+    String sql = "insert into change_event (entity_type, entity_id, kind, version, occurred_at)" +
+                 " select ?, cast(" + persister.getIdentifierColumnNames()[0] + " as " + stringType + "), ?, " +
+                 version + ", ? from " + persister.getTableName() + " where " + where;
+    List<Type> valueTypes = new ArrayList<>(List.of(StandardBasicTypes.STRING, StandardBasicTypes.STRING,
+                                                    StandardBasicTypes.LOCAL_DATE_TIME));
+    valueTypes.addAll(types);
+    List<Object> values = new ArrayList<>(List.of(type.getSimpleName(), kind.name(), clock.now()));
+    values.addAll(parameters);
+
+    JdbcCoordinator jdbc = session.getJdbcCoordinator();
+    PreparedStatement ps = jdbc.getStatementPreparer().prepareStatement(sql);
+    try {
+      for (int i = 0; i < values.size(); ++i)  // bound through Hibernate types, as UpsertTemplate does
+        valueTypes.get(i).nullSafeSet(ps, values.get(i), i + 1, session);
+      jdbc.getResultSetReturn().executeUpdate(ps);
+    }
+    catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "recording changes failed", sql);
+    }
+    finally {
+      jdbc.getLogicalConnection().getResourceRegistry().release(ps);
+      jdbc.afterStatementExecution();
+    }
+  }
+
+
+  private boolean isTracked(Class<?> type) {
+    return tracked.computeIfAbsent(type, t -> {
+      for (Class<?> c = t; c != null; c = c.getSuperclass()) {
+        EntityListeners listeners = c.getAnnotation(EntityListeners.class);
+        if (listeners != null && Arrays.asList(listeners.value()).contains(ChangeEventListener.class))
+          return true;
+      }
+      return false;
+    });
+  }
+
+
+  // one per transaction, registered with the session on the first record
+  private Pending pending(SessionImplementor session) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      Pending pending = new Pending();
+      session.getActionQueue().registerProcess(pending);
+      return pending;
+    }
+    Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+    if (pending != null)
+      return pending;
+    Pending created = new Pending();
+    session.getActionQueue().registerProcess(created);
+    TransactionSynchronizationManager.bindResource(this, created);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void suspend() {
+        TransactionSynchronizationManager.unbindResource(ChangeEventOutbox.this);
+      }
+
+
+      @Override
+      public void resume() {
+        TransactionSynchronizationManager.bindResource(ChangeEventOutbox.this, created);
+      }
+
+
+      @Override
+      public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(ChangeEventOutbox.this);
+      }
+    });
+    return created;
+  }
+
+
+  @RequiredArgsConstructor
+  private static class Record {
+    private final String entityType;
+    private final String entityId;
+    private final EntityChange.Kind kind;
+    private final Long version;
+  }
+
+
+  private class Pending implements BeforeTransactionCompletionProcess {
+
+    private final List<Record> records = new ArrayList<>();
+
+
+    @Override
+    public void doBeforeTransactionCompletion(SessionImplementor session) {
+      if (records.isEmpty())
+        return;
+      Timestamp now = Timestamp.valueOf(clock.now());
+      JdbcCoordinator jdbc = session.getJdbcCoordinator();
+      PreparedStatement ps = jdbc.getStatementPreparer().prepareStatement(INSERT);
+      try {
+        for (Record record : records) {
+          ps.setString(1, record.entityType);
+          ps.setString(2, record.entityId);
+          ps.setString(3, record.kind.name());
+          if (record.version == null)
+            ps.setNull(4, Types.BIGINT);
+          else
+            ps.setLong(4, record.version);
+          ps.setTimestamp(5, now);
+          ps.addBatch();
+        }
+        ps.executeBatch();
+      }
+      catch (SQLException e) {
+        throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "writing change events failed", INSERT);
+      }
+      finally {
+        jdbc.getLogicalConnection().getResourceRegistry().release(ps);
+        jdbc.afterStatementExecution();
+      }
+    }
+  }
+
+}
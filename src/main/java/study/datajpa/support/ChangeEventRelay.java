@@ -0,0 +1,90 @@
+package study.datajpa.support;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.LockOptions;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.ChangeEvent;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+// Drains the change_event outbox to the ChangeEventSink in id order, batch-size rows per transaction.
+// A batch is deleted in the transaction that handed it to the sink, so a failing sink leaves it for
+// the next run: delivery is at least once. Rows are locked skipping those already locked where the
+// dialect supports it, so several instances can relay from one database. Set up by OutboxConfig.
+@Slf4j
+public class ChangeEventRelay {
+
+  @PersistenceContext
+  private EntityManager em;
+
+  private final ChangeEventSink sink;
+  private final TransactionTemplate transactionTemplate;
+  private final int batchSize;
+  private final Counter relayed;
+
+
+  public ChangeEventRelay(ChangeEventSink sink, PlatformTransactionManager transactionManager, int batchSize,
+                          MeterRegistry meterRegistry) {
+    this.sink = sink;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.batchSize = batchSize;
+    this.relayed = meterRegistry.counter("repository.outbox.relayed");
+  }
+
+
+  @Scheduled(fixedDelayString = "${repository.outbox.poll-interval-ms:1000}")
+  public void relay() {
+    try {
+      drain();
+    }
+    catch (RuntimeException e) {
+      log.warn("relaying change events failed, retrying with the next poll", e);
+    }
+  }
+
+
+  // relays until the outbox is empty; returns how many events were delivered
+  public int drain() {
+    int total = 0;
+    while (true) {
+      Integer relayedNow = transactionTemplate.execute(status -> relayBatch());
+      total += relayedNow;
+      if (relayedNow < batchSize)
+        return total;
+    }
+  }
+
+
+  private int relayBatch() {
+    List<ChangeEvent> events = em.createQuery("select e from ChangeEvent e order by e.id", ChangeEvent.class)
+                                 .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                                 .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+                                 .setMaxResults(batchSize)
+                                 .getResultList();
+    if (events.isEmpty())
+      return 0;
+    try {
+      sink.publish(events);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    em.createQuery("delete from ChangeEvent e where e.id in :ids")
+      .setParameter("ids", events.stream().map(ChangeEvent::getId).collect(Collectors.toList()))
+      .executeUpdate();
+    relayed.increment(events.size());
+    return events.size();
+  }
+
+}
@@ -0,0 +1,15 @@
+package study.datajpa.support;
+
+import study.datajpa.entity.ChangeEvent;
+
+import java.io.IOException;
+import java.util.List;
+
+
+// Where ChangeEventRelay delivers change_event rows, in id order. Throwing leaves the batch in the
+// outbox for the next run, so a sink can see a batch again and must tolerate duplicates.
+public interface ChangeEventSink {
+
+  void publish(List<ChangeEvent> events) throws IOException;
+
+}
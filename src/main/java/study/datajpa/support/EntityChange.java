@@ -0,0 +1,19 @@
+package study.datajpa.support;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+
+// One entity insert, update or delete as Hibernate executed it, see EntityChangeDispatcher
+@Getter
+@RequiredArgsConstructor
+public class EntityChange {
+
+  public enum Kind {INSERT, UPDATE, DELETE}
+
+  private final Class<?> type;
+  private final Object id;
+  private final Object entity;
+  private final Kind kind;
+
+}
@@ -0,0 +1,156 @@
+package study.datajpa.support;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+
+// Fans Hibernate's post-insert/update/delete events, and their post-commit counterparts, out to the
+// EntityChangeObserver beans. Observers are looked up on first use: this bean is needed while the
+// EntityManagerFactory is built, long before observers that query the database can be.
+// Hooked into Hibernate by RepositoryConfig; bulk statements report through bulkChanged() or bulkUpdating().
+@Component
+public class EntityChangeDispatcher {
+
+  private final ObjectProvider<EntityChangeObserver> observerProvider;
+  private volatile List<EntityChangeObserver> observers;
+
+
+  public EntityChangeDispatcher(ObjectProvider<EntityChangeObserver> observerProvider) {
+    this.observerProvider = observerProvider;
+  }
+
+
+  public void bulkChanged(Class<?> type, Collection<Long> ids) {
+    for (EntityChangeObserver observer : observers())
+      observer.bulkChanged(type, ids);
+  }
+
+
+  public void bulkUpdating(Class<?> type, String where, List<Type> types, List<?> parameters) {
+    for (EntityChangeObserver observer : observers())
+      observer.bulkUpdating(type, where, types, parameters);
+  }
+
+
+  public Integrator integrator() {
+    return new Integrator() {
+      @Override
+      public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+                            SessionFactoryServiceRegistry serviceRegistry) {
+        EventListenerRegistry listeners = serviceRegistry.getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_INSERT, new Listener(EntityChangeObserver::changed));
+        listeners.appendListeners(EventType.POST_UPDATE, new Listener(EntityChangeObserver::changed));
+        listeners.appendListeners(EventType.POST_DELETE, new Listener(EntityChangeObserver::changed));
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, new Listener(EntityChangeObserver::committed));
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, new Listener(EntityChangeObserver::committed));
+        listeners.appendListeners(EventType.POST_COMMIT_DELETE, new Listener(EntityChangeObserver::committed));
+      }
+
+
+      @Override
+      public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+      }
+    };
+  }
+
+
+  private List<EntityChangeObserver> observers() {
+    List<EntityChangeObserver> resolved = observers;
+    if (resolved == null)
+      observers = resolved = observerProvider.orderedStream().collect(Collectors.toList());
+    return resolved;
+  }
+
+
+  private void dispatch(BiConsumer<EntityChangeObserver, EntityChange> callback, EntityPersister persister,
+                        Object id, Object entity, EntityChange.Kind kind) {
+    List<EntityChangeObserver> targets = observers();
+    if (targets.isEmpty())
+      return;
+    EntityChange change = new EntityChange(persister.getMappedClass(), id, entity, kind);
+    for (EntityChangeObserver observer : targets)
+      callback.accept(observer, change);
+  }
+
+
+  // the commit-failed callbacks are left alone: nothing was reported as committed
+  private class Listener implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+                                    PostCommitDeleteEventListener {
+
+    private final BiConsumer<EntityChangeObserver, EntityChange> callback;
+
+
+    private Listener(BiConsumer<EntityChangeObserver, EntityChange> callback) {
+      this.callback = callback;
+    }
+
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+      dispatch(callback, event.getPersister(), event.getId(), event.getEntity(), EntityChange.Kind.INSERT);
+    }
+
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+      dispatch(callback, event.getPersister(), event.getId(), event.getEntity(), EntityChange.Kind.UPDATE);
+    }
+
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+      dispatch(callback, event.getPersister(), event.getId(), event.getEntity(), EntityChange.Kind.DELETE);
+    }
+
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+      return true;
+    }
+
+
+    @Override
+    @SuppressWarnings("deprecation")  // misspelt predecessor, still abstract in Hibernate 5.6
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+      return requiresPostCommitHandling(persister);
+    }
+  }
+
+}
@@ -0,0 +1,32 @@
+package study.datajpa.support;
+
+import org.hibernate.type.Type;
+
+import java.util.Collection;
+import java.util.List;
+
+
+// Notified by EntityChangeDispatcher. changed() runs at flush, inside the transaction, so it also sees
+// changes that are later rolled back; committed() runs once the transaction has committed.
+public interface EntityChangeObserver {
+
+  default void changed(EntityChange change) {
+  }
+
+
+  default void committed(EntityChange change) {
+  }
+
+
+  // rows rewritten by a bulk statement that bypassed the persistence context
+  default void bulkChanged(Class<?> type, Collection<Long> ids) {
+  }
+
+
+  // rows an "update versioned" bulk statement is about to rewrite, as an SQL condition on the entity's
+  // table with the Hibernate types of its parameters; called in the statement's transaction right before
+  // it runs, once the caller has locked the rows, so the rows read are the rows it hits
+  default void bulkUpdating(Class<?> type, String where, List<Type> types, List<?> parameters) {
+  }
+
+}
@@ -0,0 +1,45 @@
+package study.datajpa.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import study.datajpa.entity.ChangeEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+
+// Appends relayed events to a file as JSON lines (repository.outbox.sink=file). Each batch is forced
+// to disk before publish() returns, since the relay deletes it from the outbox right after.
+public class FileChangeEventSink implements ChangeEventSink {
+
+  private final Path file;
+  private final ObjectMapper objectMapper;
+
+
+  public FileChangeEventSink(Path file, ObjectMapper objectMapper) {
+    this.file = file;
+    this.objectMapper = objectMapper;
+  }
+
+
+  @Override
+  public synchronized void publish(List<ChangeEvent> events) throws IOException {
+    ByteArrayOutputStream lines = new ByteArrayOutputStream();
+    for (ChangeEvent event : events) {
+      lines.write(objectMapper.writeValueAsBytes(event));
+      lines.write('\n');
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.APPEND)) {
+      ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      channel.force(false);
+    }
+  }
+
+}
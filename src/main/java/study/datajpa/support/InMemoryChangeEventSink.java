@@ -0,0 +1,31 @@
+package study.datajpa.support;
+
+import study.datajpa.entity.ChangeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+// Keeps relayed events in memory, for tests and local runs (repository.outbox.sink=memory)
+public class InMemoryChangeEventSink implements ChangeEventSink {
+
+  private final ConcurrentLinkedQueue<ChangeEvent> events = new ConcurrentLinkedQueue<>();
+
+
+  @Override
+  public void publish(List<ChangeEvent> batch) {
+    events.addAll(batch);
+  }
+
+
+  public List<ChangeEvent> events() {
+    return new ArrayList<>(events);
+  }
+
+
+  public void clear() {
+    events.clear();
+  }
+
+}
@@ -0,0 +1,112 @@
+package study.datajpa.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+
+// Counts similar selects within a scope (one per HTTP request, see NPlusOneFilter) and reports
+// any shape repeated more than the threshold, which is what an unbatched lazy load looks like.
+@Slf4j
+@Component
+public class NPlusOneDetector implements StatementInspector {
+
+  private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+  private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+\\b");
+  private static final Pattern IN_LIST = Pattern.compile("in \\(\\?(?:\\s*,\\s*\\?)*\\)");
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  public enum Mode {OFF, LOG, FAIL}
+
+  private final Mode mode;
+  private final int threshold;
+  private final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+
+  public NPlusOneDetector(@Value("${repository.n-plus-one.mode:log}") Mode mode,
+                          @Value("${repository.n-plus-one.threshold:10}") int threshold) {
+    this.mode = mode;
+    this.threshold = threshold;
+  }
+
+
+  public Scope open(String name) {
+    Scope scope = new Scope(name, current.get());
+    current.set(scope);
+    return scope;
+  }
+
+
+  @Override
+  public String inspect(String sql) {
+    Scope scope = current.get();
+    if (scope != null && mode != Mode.OFF && sql.stripLeading().regionMatches(true, 0, "select", 0, 6))
+      scope.record(shape(sql));
+    return sql;
+  }
+
+
+  static String shape(String sql) {
+    String shape = sql.toLowerCase(Locale.ROOT);
+    shape = STRING_LITERAL.matcher(shape).replaceAll("?");
+    shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+    shape = WHITESPACE.matcher(shape).replaceAll(" ");
+    return IN_LIST.matcher(shape).replaceAll("in (?)").trim();  // batch loads of any size are one shape
+  }
+
+
+  public class Scope implements AutoCloseable {
+
+    private final String name;
+    private final Scope parent;
+    private final Map<String, Integer> counts = new HashMap<>();
+    private final Set<String> reported = new HashSet<>();
+    private int statements;
+
+
+    private Scope(String name, Scope parent) {
+      this.name = name;
+      this.parent = parent;
+    }
+
+
+    public int statements() {
+      return statements;
+    }
+
+
+    public int maxSimilar() {
+      return counts.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+
+    private void record(String shape) {
+      ++statements;
+      int count = counts.merge(shape, 1, Integer::sum);
+      if (count <= threshold || !reported.add(shape))
+        return;
+      String message = String.format("N+1 in %s: more than %d statements like [%s]", name, threshold, shape);
+      if (mode == Mode.FAIL)
+        throw new IllegalStateException(message);
+      log.warn(message);
+    }
+
+
+    @Override
+    public void close() {
+      if (parent != null)
+        current.set(parent);
+      else
+        current.remove();
+    }
+  }
+
+}
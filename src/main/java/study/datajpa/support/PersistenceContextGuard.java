@@ -0,0 +1,263 @@
+package study.datajpa.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AutoFlushEvent;
+import org.hibernate.event.spi.AutoFlushEventListener;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.FlushEventListener;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+// Per-transaction ceilings on statements executed, entities loaded and time spent flushing. Usage is
+// bound to the transaction on its first statement, load or flush; outside a transaction only an open
+// Scope (see QueryBudgetExtension in the tests) collects it. Each flush also reports how many managed
+// entities it dirty-checked and the persistence context size from the session statistics, which is
+// where snapshots of entities nobody changed show up. Hooked into Hibernate by RepositoryConfig.
+@Slf4j
+@Component
+public class PersistenceContextGuard implements StatementInspector {
+
+  public enum Mode {OFF, WARN, FAIL}
+
+  private enum Limit {STATEMENTS, ENTITIES, FLUSH_TIME}
+
+  private final Mode mode;
+  private final long maxStatements;
+  private final long maxEntities;
+  private final long maxFlushNanos;
+  private final ThreadLocal<Usage> scoped = new ThreadLocal<>();
+
+
+  public PersistenceContextGuard(@Value("${repository.guard.mode:warn}") Mode mode,
+                                 @Value("${repository.guard.max-statements:500}") long maxStatements,
+                                 @Value("${repository.guard.max-entities:5000}") long maxEntities,
+                                 @Value("${repository.guard.max-flush-time:500ms}") Duration maxFlushTime) {
+    this.mode = mode;
+    this.maxStatements = maxStatements;
+    this.maxEntities = maxEntities;
+    this.maxFlushNanos = maxFlushTime.toNanos();
+  }
+
+
+  // Collects the usage on this thread until closed, whether or not a transaction is active
+  public Scope open(String name) {
+    Scope scope = new Scope(name, scoped.get());
+    scoped.set(scope.usage);
+    return scope;
+  }
+
+
+  // the usage being collected on this thread, or null
+  public Usage current() {
+    Usage usage = scoped.get();
+    if (usage != null)
+      return usage;
+    return (Usage) TransactionSynchronizationManager.getResource(this);
+  }
+
+
+  @Override
+  public String inspect(String sql) {
+    Usage usage = usage();
+    if (usage != null && ++usage.statements > maxStatements)
+      exceeded(usage, Limit.STATEMENTS, usage.statements + " statements, ceiling " + maxStatements);
+    return sql;
+  }
+
+
+  public Integrator integrator() {
+    return new Integrator() {
+      @Override
+      public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+                            SessionFactoryServiceRegistry serviceRegistry) {
+        EventListenerRegistry listeners = serviceRegistry.getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_LOAD, (PostLoadEventListener) event -> loaded());
+        listeners.prependListeners(EventType.FLUSH, (FlushEventListener) event -> flushStarted());
+        listeners.appendListeners(EventType.FLUSH, (FlushEventListener) event -> flushEnded(event));
+        listeners.prependListeners(EventType.AUTO_FLUSH, (AutoFlushEventListener) event -> flushStarted());
+        listeners.appendListeners(EventType.AUTO_FLUSH, (AutoFlushEventListener) event -> flushEnded(event));
+      }
+
+
+      @Override
+      public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+      }
+    };
+  }
+
+
+  private void loaded() {
+    Usage usage = usage();
+    if (usage != null && ++usage.entitiesLoaded > maxEntities)
+      exceeded(usage, Limit.ENTITIES, usage.entitiesLoaded + " entities loaded, ceiling " + maxEntities);
+  }
+
+
+  private void flushStarted() {
+    Usage usage = usage();
+    if (usage != null && usage.flushDepth++ == 0)
+      usage.flushStartedAt = System.nanoTime();
+  }
+
+
+  private void flushEnded(FlushEvent event) {
+    Usage usage = usage();
+    if (usage == null || usage.flushDepth == 0 || --usage.flushDepth > 0)
+      return;
+    usage.flushNanos += System.nanoTime() - usage.flushStartedAt;
+    if (!(event instanceof AutoFlushEvent) || ((AutoFlushEvent) event).isFlushRequired())
+      ++usage.flushes;
+    usage.entitiesFlushed += event.getNumberOfEntitiesProcessed();
+    usage.persistenceContextSize = Math.max(usage.persistenceContextSize,
+                                            event.getSession().getStatistics().getEntityCount());
+    if (usage.flushNanos > maxFlushNanos)
+      exceeded(usage, Limit.FLUSH_TIME, TimeUnit.NANOSECONDS.toMillis(usage.flushNanos) + " ms flushing, ceiling " +
+                                        TimeUnit.NANOSECONDS.toMillis(maxFlushNanos) + " ms");
+  }
+
+
+  private Usage usage() {
+    if (mode == Mode.OFF)
+      return null;
+    Usage usage = current();
+    if (usage != null || !TransactionSynchronizationManager.isSynchronizationActive())
+      return usage;
+
+    Usage transactionUsage = new Usage(TransactionSynchronizationManager.getCurrentTransactionName());
+    TransactionSynchronizationManager.bindResource(this, transactionUsage);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void suspend() {
+        TransactionSynchronizationManager.unbindResource(PersistenceContextGuard.this);
+      }
+
+
+      @Override
+      public void resume() {
+        TransactionSynchronizationManager.bindResource(PersistenceContextGuard.this, transactionUsage);
+      }
+
+
+      @Override
+      public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(PersistenceContextGuard.this);
+      }
+    });
+    return transactionUsage;
+  }
+
+
+  private void exceeded(Usage usage, Limit limit, String detail) {
+    if (!usage.reported.add(limit))
+      return;
+    String message = String.format("%s exceeded a budget: %s (%s)", usage.name, detail, usage);
+    if (mode == Mode.FAIL)
+      throw new IllegalStateException(message);
+    log.warn(message);
+  }
+
+
+  public static class Usage {
+
+    private final String name;
+    private final Set<Limit> reported = EnumSet.noneOf(Limit.class);
+    private long statements;
+    private long entitiesLoaded;
+    private long entitiesFlushed;
+    private long persistenceContextSize;
+    private int flushes;
+    private long flushNanos;
+    private int flushDepth;
+    private long flushStartedAt;
+
+
+    private Usage(String name) {
+      this.name = name == null ? "transaction" : name;
+    }
+
+
+    public long getStatements() {
+      return statements;
+    }
+
+
+    public long getEntitiesLoaded() {
+      return entitiesLoaded;
+    }
+
+
+    // managed entities dirty-checked, summed over flushes; auto flushes dirty-check even when nothing is written
+    public long getEntitiesFlushed() {
+      return entitiesFlushed;
+    }
+
+
+    // largest persistence context seen at the end of a flush
+    public long getPersistenceContextSize() {
+      return persistenceContextSize;
+    }
+
+
+    // flushes that wrote, auto flushes before queries included
+    public int getFlushes() {
+      return flushes;
+    }
+
+
+    public Duration getFlushTime() {
+      return Duration.ofNanos(flushNanos);
+    }
+
+
+    @Override
+    public String toString() {
+      return String.format("statements=%d, entitiesLoaded=%d, flushes=%d, entitiesFlushed=%d, " +
+                           "persistenceContextSize=%d, flushTime=%dms", statements, entitiesLoaded, flushes,
+                           entitiesFlushed, persistenceContextSize, TimeUnit.NANOSECONDS.toMillis(flushNanos));
+    }
+  }
+
+
+  public class Scope implements AutoCloseable {
+
+    private final Usage usage;
+    private final Usage parent;
+
+
+    private Scope(String name, Usage parent) {
+      this.usage = new Usage(name);
+      this.parent = parent;
+    }
+
+
+    public Usage usage() {
+      return usage;
+    }
+
+
+    @Override
+    public void close() {
+      if (parent != null)
+        scoped.set(parent);
+      else
+        scoped.remove();
+    }
+  }
+
+}
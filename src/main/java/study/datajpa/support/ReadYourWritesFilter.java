@@ -0,0 +1,41 @@
+package study.datajpa.support;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+
+// Restores the primary pin of the caller's HTTP session before the request and saves it afterwards.
+// Only existing sessions carry the pin; no session is created for it.
+@Component
+@ConditionalOnProperty("repository.replicas.urls")
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+  private static final String ATTRIBUTE = ReadYourWritesFilter.class.getName() + ".pinnedUntil";
+
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    HttpSession session = request.getSession(false);
+    ReplicaRoutingDataSource.pinUntil(session == null ? null : (Long) session.getAttribute(ATTRIBUTE));
+    try {
+      chain.doFilter(request, response);
+    }
+    finally {
+      Long pinned = ReplicaRoutingDataSource.pinnedUntil();
+      ReplicaRoutingDataSource.pinUntil(null);
+      session = request.getSession(false);
+      if (session != null && pinned != null)
+        session.setAttribute(ATTRIBUTE, pinned);
+    }
+  }
+
+}
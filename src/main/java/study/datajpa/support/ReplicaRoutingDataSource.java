@@ -0,0 +1,99 @@
+package study.datajpa.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Sends the connections of read-only transactions to the replicas round-robin and everything else to
+// the primary. The JPA transaction manager takes its connection while beginning the transaction, before the
+// read-only flag is published, so ReplicaRoutingTransactionManager announces it through beginning(). A
+// read-write transaction pins the thread to the primary for the read-your-writes window;
+// ReadYourWritesFilter carries the pin across the requests of an HTTP session. Without replicas every
+// connection comes from the primary.
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+  private static final String PRIMARY = "primary";
+  private static final ThreadLocal<Boolean> BEGINNING_READ_ONLY = new ThreadLocal<>();
+  private static final ThreadLocal<Long> PINNED_UNTIL = new ThreadLocal<>();
+
+  private final HikariDataSource primary;
+  private final List<HikariDataSource> replicas;
+  private final long readYourWritesNanos;
+  private final AtomicInteger next = new AtomicInteger();
+
+
+  public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, Duration readYourWrites) {
+    this.primary = primary;
+    this.replicas = replicas;
+    this.readYourWritesNanos = readYourWrites.toNanos();
+
+    Map<Object, Object> targets = new HashMap<>();
+    targets.put(PRIMARY, primary);
+    for (int i = 0; i < replicas.size(); ++i)
+      targets.put(i, replicas.get(i));
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(primary);
+  }
+
+
+  // Runs the transaction begin; connections taken meanwhile are routed by readOnly
+  public static void beginning(boolean readOnly, Runnable begin) {
+    Boolean outer = BEGINNING_READ_ONLY.get();
+    BEGINNING_READ_ONLY.set(readOnly);
+    try {
+      begin.run();
+    }
+    finally {
+      BEGINNING_READ_ONLY.set(outer);
+    }
+  }
+
+
+  // System.nanoTime() until which reads on this thread go to the primary, or null
+  public static Long pinnedUntil() {
+    return PINNED_UNTIL.get();
+  }
+
+
+  public static void pinUntil(Long nanoTime) {
+    if (nanoTime == null)
+      PINNED_UNTIL.remove();
+    else
+      PINNED_UNTIL.set(nanoTime);
+  }
+
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    Boolean readOnly = BEGINNING_READ_ONLY.get();
+    if (readOnly == null || replicas.isEmpty())  // auto-commit work, or no replica to read from
+      return PRIMARY;
+    long now = System.nanoTime();
+    if (!readOnly) {
+      PINNED_UNTIL.set(now + readYourWritesNanos);
+      return PRIMARY;
+    }
+    Long pinned = PINNED_UNTIL.get();
+    if (pinned != null) {
+      if (now - pinned < 0)
+        return PRIMARY;
+      PINNED_UNTIL.remove();
+    }
+    return Math.floorMod(next.getAndIncrement(), replicas.size());
+  }
+
+
+  @Override
+  public void close() {
+    primary.close();
+    replicas.forEach(HikariDataSource::close);
+  }
+
+}
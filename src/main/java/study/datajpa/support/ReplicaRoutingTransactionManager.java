@@ -0,0 +1,15 @@
+package study.datajpa.support;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+
+// Lets ReplicaRoutingDataSource see the read-only flag while the transaction takes its connection.
+public class ReplicaRoutingTransactionManager extends JpaTransactionManager {
+
+  @Override
+  protected void doBegin(Object transaction, TransactionDefinition definition) {
+    ReplicaRoutingDataSource.beginning(definition.isReadOnly(), () -> super.doBegin(transaction, definition));
+  }
+
+}
@@ -0,0 +1,153 @@
+package study.datajpa.support;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.hibernate.Session;
+import org.springframework.data.domain.Slice;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.BaseStream;
+import java.util.stream.Collectors;
+
+
+// Records per repository method: latency, rows returned, statements issued and the number of entities
+// managed by the bound persistence context once the call returns. The method tag carries the parameter
+// types, so overloads get meters of their own: "findByAge(int,Pageable,CountMode)".
+class RepositoryMetricsInterceptor implements MethodInterceptor {
+
+  private final String repository;
+  private final Supplier<MeterRegistry> registry;
+  private final Supplier<StatementCounter> statementCounter;
+  private final Supplier<EntityManagerFactory> emf;
+  private final boolean histogram;
+  private final Map<Method, Meters> meters = new ConcurrentHashMap<>();
+
+
+  RepositoryMetricsInterceptor(String repository, Supplier<MeterRegistry> registry,
+                               Supplier<StatementCounter> statementCounter, Supplier<EntityManagerFactory> emf,
+                               boolean histogram) {
+    this.repository = repository;
+    this.registry = registry;
+    this.statementCounter = statementCounter;
+    this.emf = emf;
+    this.histogram = histogram;
+  }
+
+
+  @Override
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    Method method = invocation.getMethod();
+    if (method.getDeclaringClass() == Object.class)
+      return invocation.proceed();
+
+    MeterRegistry meterRegistry = registry.get();
+    StatementCounter counter = statementCounter.get();
+    if (meterRegistry == null || counter == null)
+      return invocation.proceed();
+
+    Meters m = meters.computeIfAbsent(method, k -> new Meters(meterRegistry, repository, signature(method), histogram));
+    long statements = counter.current();
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      Object result = invocation.proceed();
+      success = true;
+      long rows = rows(result);
+      if (rows >= 0)
+        m.rows.record(rows);
+      return result;
+    }
+    finally {
+      (success ? m.success : m.error).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      m.statements.record(counter.current() - statements);
+      int managed = managedEntities();
+      if (managed >= 0)
+        m.persistenceContext.record(managed);
+    }
+  }
+
+
+  private static String signature(Method method) {
+    return Arrays.stream(method.getParameterTypes())
+                 .map(Class::getSimpleName)
+                 .collect(Collectors.joining(",", method.getName() + "(", ")"));
+  }
+
+
+  // -1 when the result is not a row count, e.g. a lazily consumed Stream
+  private static long rows(Object result) {
+    if (result == null)
+      return 0;
+    if (result instanceof Collection)
+      return ((Collection<?>) result).size();
+    if (result instanceof Slice)
+      return ((Slice<?>) result).getNumberOfElements();
+    if (result instanceof Optional)
+      return ((Optional<?>) result).isPresent() ? 1 : 0;
+    if (result instanceof Number || result instanceof Boolean || result instanceof BaseStream)
+      return -1;
+    return 1;
+  }
+
+
+  private int managedEntities() {
+    EntityManagerFactory factory = emf.get();
+    if (factory == null)
+      return -1;
+    EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager.getResource(factory);
+    if (holder == null)
+      return -1;
+    return holder.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount();
+  }
+
+
+  private static class Meters {
+
+    private final Timer success;
+    private final Timer error;
+    private final DistributionSummary rows;
+    private final DistributionSummary statements;
+    private final DistributionSummary persistenceContext;
+
+
+    Meters(MeterRegistry registry, String repository, String method, boolean histogram) {
+      success = timer(registry, repository, method, "success", histogram);
+      error = timer(registry, repository, method, "error", histogram);
+      rows = summary(registry, "repository.rows", repository, method, histogram);
+      statements = summary(registry, "repository.statements", repository, method, histogram);
+      persistenceContext = summary(registry, "repository.persistence-context.entities", repository, method, histogram);
+    }
+
+
+    private static Timer timer(MeterRegistry registry, String repository, String method, String outcome,
+                               boolean histogram) {
+      return Timer.builder("repository.invocations")
+                  .tags("repository", repository, "method", method, "outcome", outcome)
+                  .publishPercentileHistogram(histogram)
+                  .register(registry);
+    }
+
+
+    private static DistributionSummary summary(MeterRegistry registry, String name, String repository, String method,
+                                               boolean histogram) {
+      return DistributionSummary.builder(name)
+                                .tags("repository", repository, "method", method)
+                                .publishPercentileHistogram(histogram)
+                                .register(registry);
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package study.datajpa.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+import org.springframework.util.function.SingletonSupplier;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.function.Supplier;
+
+
+// Puts a RepositoryMetricsInterceptor in front of every Spring Data repository and @Repository bean,
+// tagged with the bean name. Dependencies are looked up lazily so repositories are not created early.
+// Percentile histograms (five meters per method) are published only with repository.metrics.histogram.
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+  private final Supplier<MeterRegistry> registry;
+  private final Supplier<StatementCounter> statementCounter;
+  private final Supplier<EntityManagerFactory> emf;
+  private final boolean histogram;
+
+
+  public RepositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> registry,
+                                        ObjectProvider<StatementCounter> statementCounter,
+                                        ObjectProvider<EntityManagerFactory> emf,
+                                        @Value("${repository.metrics.histogram:false}") boolean histogram) {
+    this.registry = SingletonSupplier.of(registry::getIfAvailable);
+    this.statementCounter = SingletonSupplier.of(statementCounter::getIfAvailable);
+    this.emf = SingletonSupplier.of(emf::getIfAvailable);
+    this.histogram = histogram;
+  }
+
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    if (!isRepository(bean))
+      return bean;
+
+    RepositoryMetricsInterceptor interceptor =
+        new RepositoryMetricsInterceptor(beanName, registry, statementCounter, emf, histogram);
+    if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+      ((Advised) bean).addAdvice(0, interceptor);
+      return bean;
+    }
+    ProxyFactory proxyFactory = new ProxyFactory(bean);
+    proxyFactory.setProxyTargetClass(true);
+    proxyFactory.addAdvice(interceptor);
+    return proxyFactory.getProxy();
+  }
+
+
+  private static boolean isRepository(Object bean) {
+    return bean instanceof Repository
+        || AnnotatedElementUtils.hasAnnotation(AopUtils.getTargetClass(bean),
+                                               org.springframework.stereotype.Repository.class);
+  }
+
+}
@@ -0,0 +1,26 @@
+package study.datajpa.support;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.stereotype.Component;
+
+
+// Running count of statements Hibernate prepared on the current thread; callers take the difference
+// between two reads to get the statements issued in between.
+@Component
+public class StatementCounter implements StatementInspector {
+
+  private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+
+  @Override
+  public String inspect(String sql) {
+    ++COUNT.get()[0];
+    return sql;
+  }
+
+
+  public long current() {
+    return COUNT.get()[0];
+  }
+
+}
@@ -0,0 +1,103 @@
+package study.datajpa.support;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Bumps a per-table version for every insert/update/delete/merge statement Hibernate prepares,
+// including JPQL bulk updates and native queries, so caches keyed on a table can tell they are stale.
+// Inside a transaction the written tables are bumped once more after it completes: whatever was read
+// and versioned between the statement and the commit saw the old rows.
+@Component
+public class TableWriteTracker implements StatementInspector {
+
+  private static final String[] WRITE_PREFIXES = {"insert into ", "update ", "delete from ", "merge into "};
+
+  private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+
+  @Override
+  public String inspect(String sql) {
+    String table = writtenTable(sql);
+    if (table != null) {
+      bump(table);
+      if (TransactionSynchronizationManager.isSynchronizationActive())
+        writtenInTransaction().add(table);
+    }
+    return sql;
+  }
+
+
+  public long version(String table) {
+    AtomicLong version = versions.get(table.toLowerCase(Locale.ROOT));
+    return version == null ? 0 : version.get();
+  }
+
+
+  private void bump(String table) {
+    versions.computeIfAbsent(table, t -> new AtomicLong()).incrementAndGet();
+  }
+
+
+  // one set per transaction, bumped after commit or rollback
+  @SuppressWarnings("unchecked")
+  private Set<String> writtenInTransaction() {
+    Set<String> tables = (Set<String>) TransactionSynchronizationManager.getResource(this);
+    if (tables != null)
+      return tables;
+    Set<String> created = new HashSet<>();
+    TransactionSynchronizationManager.bindResource(this, created);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void suspend() {
+        TransactionSynchronizationManager.unbindResource(TableWriteTracker.this);
+      }
+
+
+      @Override
+      public void resume() {
+        TransactionSynchronizationManager.bindResource(TableWriteTracker.this, created);
+      }
+
+
+      @Override
+      public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(TableWriteTracker.this);
+        created.forEach(TableWriteTracker.this::bump);
+      }
+    });
+    return created;
+  }
+
+
+  static String writtenTable(String sql) {
+    String trimmed = sql.stripLeading();
+    if (trimmed.isEmpty())
+      return null;
+    char first = Character.toLowerCase(trimmed.charAt(0));
+    if (first != 'i' && first != 'u' && first != 'd' && first != 'm')  // selects are the common case
+      return null;
+
+    String lower = trimmed.toLowerCase(Locale.ROOT);
+    for (String prefix : WRITE_PREFIXES) {
+      if (lower.startsWith(prefix)) {
+        int start = prefix.length();
+        int end = start;
+        while (end < lower.length() && !Character.isWhitespace(lower.charAt(end)) && lower.charAt(end) != '(')
+          ++end;
+        return lower.substring(start, end);
+      }
+    }
+    return null;
+  }
+
+}
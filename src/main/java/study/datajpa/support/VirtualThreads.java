@@ -0,0 +1,28 @@
+package study.datajpa.support;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+
+// Virtual thread factories looked up reflectively, so the code still compiles and runs on JDK 11.
+public class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+
+  // null when the running JDK has no virtual threads
+  public static ThreadFactory factory(String prefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      Method name = builderType.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, prefix, 0L);
+      return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+    }
+    catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      return null;  // includes JDK 19/20 without --enable-preview
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+package study.datajpa.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.Member;
+import study.datajpa.repository.MemberRepository;
+import study.datajpa.support.ReplicaRoutingDataSource;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+// Two in-memory H2 databases stand in for the replicas; database() tells which one served a statement.
+// Only the primary's schema is generated, the replicas get a member table by hand.
+@SpringBootTest(properties = {
+    "repository.replicas.urls=jdbc:h2:mem:replica0;DB_CLOSE_DELAY=-1,jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1",
+    "repository.replicas.read-your-writes=1h"
+})
+class ReplicaRoutingTest {
+
+  @Autowired
+  JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Autowired
+  MemberRepository memberRepository;
+
+
+  @BeforeEach
+  void unpin() {
+    ReplicaRoutingDataSource.pinUntil(null);  // the application context was started on this thread
+  }
+
+
+  @Test
+  void readOnlyTransactionsGoToReplicas() {
+    String primary = database(false);
+    assertThat(primary).isNotIn("REPLICA0", "REPLICA1");
+
+    ReplicaRoutingDataSource.pinUntil(null);
+    assertThat(database(true)).isIn("REPLICA0", "REPLICA1");
+    assertThat(database(true)).isNotEqualTo(database(true));  // round-robin over both replicas
+  }
+
+
+  @Test
+  void readYourWrites() {
+    assertThat(database(true)).isIn("REPLICA0", "REPLICA1");
+
+    String primary = database(false);
+    assertThat(database(true)).isEqualTo(primary);
+  }
+
+
+  @Test
+  void readOnlyRepositoryReadsGoToReplicas() throws SQLException {
+    for (int i = 0; i < 2; ++i)
+      replicate(i, -1L - i, "replicated", i);  // the age tells the replicas apart
+
+    List<Integer> ages = new ArrayList<>();
+    for (int i = 0; i < 2; ++i)
+      memberRepository.findReadOnlyByUsername("replicated").stream().map(Member::getAge).forEach(ages::add);
+    assertThat(ages).containsExactlyInAnyOrder(0, 1);  // the primary has no such member
+  }
+
+
+  private static void replicate(int replica, long id, String username, int age) throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:replica" + replica + ";DB_CLOSE_DELAY=-1",
+                                                             "sa", "");
+         Statement statement = connection.createStatement()) {
+      statement.execute("create table if not exists member (member_id bigint primary key, username varchar(255)," +
+                        " age integer not null, version bigint, team_id bigint, created_by varchar(255)," +
+                        " created_date timestamp, last_modified_by varchar(255), last_modified_date timestamp)");
+      statement.execute("merge into member (member_id, username, age) key (member_id)" +
+                        " values (" + id + ", '" + username + "', " + age + ")");
+    }
+  }
+
+
+  private String database(boolean readOnly) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setReadOnly(readOnly);
+    return transactionTemplate.execute(status -> jdbcTemplate.queryForObject("select database()", String.class));
+  }
+
+}
@@ -0,0 +1,103 @@
+package study.datajpa.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+
+// Relies on the 100 members MemberController.init inserts.
+@SpringBootTest
+@AutoConfigureMockMvc
+class MemberControllerTest {
+
+  @Autowired
+  MockMvc mockMvc;
+
+
+  @Test
+  void jsonStaysTheDefault() throws Exception {
+    mockMvc.perform(get("/members_page").param("sort", "id"))
+           .andExpect(status().isOk())
+           .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+           .andExpect(jsonPath("$.content.length()").value(5))
+           .andExpect(jsonPath("$.pageable").exists());
+  }
+
+
+  @Test
+  void cbor() throws Exception {
+    JsonNode page = binary("/members_page", MemberPageEncoder.CBOR, new ObjectMapper(new CBORFactory()));
+    assertThat(page.get("content").size()).isEqualTo(5);
+    assertThat(page.get("content").get(0).get(1).asText()).isEqualTo("user0");
+    assertThat(page.get("size").asInt()).isEqualTo(5);
+    assertThat(page.get("totalElements").asLong()).isGreaterThanOrEqualTo(100);
+    assertThat(page.has("pageable")).isFalse();
+  }
+
+
+  @Test
+  void smile() throws Exception {
+    JsonNode page = binary("/members", MemberPageEncoder.SMILE, new ObjectMapper(new SmileFactory()));
+    assertThat(page.get("columns").get(1).asText()).isEqualTo("username");
+    assertThat(page.get("content").size()).isEqualTo(10);  // spring.data.web.pageable.default-page-size
+  }
+
+
+  @Test
+  void malformedContinuation() throws Exception {
+    mockMvc.perform(get("/members/seek").param("continuation", "not a token"))
+           .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/members/seek").param("sort", "team"))
+           .andExpect(status().isBadRequest());
+  }
+
+
+  @Test
+  void unsupportedSort() throws Exception {
+    mockMvc.perform(get("/members").param("sort", "nickname"))
+           .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/members_page").param("sort", "nickname").accept(MemberPageEncoder.CBOR))
+           .andExpect(request().asyncNotStarted())
+           .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/members/slice").param("age", "10").param("sort", "nickname"))
+           .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/members").param("sort", "createdDate,desc"))
+           .andExpect(status().isOk());
+  }
+
+
+  @Test
+  void unknownExportFormat() throws Exception {
+    mockMvc.perform(get("/members/export").param("format", "xml"))
+           .andExpect(status().isBadRequest());
+  }
+
+
+  private JsonNode binary(String path, String accept, ObjectMapper mapper) throws Exception {
+    MvcResult started = mockMvc.perform(get(path).param("sort", "id").accept(accept))
+                               .andExpect(request().asyncStarted())
+                               .andReturn();
+    MvcResult result = mockMvc.perform(asyncDispatch(started))
+                              .andExpect(status().isOk())
+                              .andExpect(content().contentType(accept))
+                              .andReturn();
+    return mapper.readTree(result.getResponse().getContentAsByteArray());
+  }
+
+}
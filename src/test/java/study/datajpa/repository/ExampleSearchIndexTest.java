@@ -0,0 +1,57 @@
+package study.datajpa.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.transaction.annotation.Transactional;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+
+import javax.persistence.EntityManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+@SpringBootTest(properties = "repository.example.single-writer=true")
+@Transactional
+class ExampleSearchIndexTest {
+
+  @Autowired
+  ExampleSearchIndex index;
+
+  @Autowired
+  MemberRepository memberRepository;
+
+  @Autowired
+  EntityManager em;
+
+
+  @Test
+  void narrowed() {
+    Team alpha = new Team("alphaTeam");
+    em.persist(alpha);
+    Member member = new Member("memberAlpha", 10, alpha);
+    em.persist(member);
+    em.persist(new Member("memberBeta", 20, alpha));
+    em.flush();
+    em.clear();
+
+    assertThat(index.covers(Member.class, "username")).isTrue();
+    assertThat(index.candidates(Member.class, "username", "alpha")).contains(member.getId());
+
+    ExampleMatcher matcher = ExampleMatcher.matching()
+                                           .withIgnorePaths("age")
+                                           .withMatcher("username", m -> m.contains().ignoreCase());
+    assertThat(memberRepository.findAll(Example.of(new Member("ALPHA"), matcher)))
+        .extracting(Member::getUsername).containsExactly("memberAlpha");
+
+    // not flushed yet, the index learns about it when the search flushes
+    memberRepository.findByUsername("memberBeta").get(0).setUsername("renamed_Alpha");
+    assertThat(memberRepository.findAll(Example.of(new Member("ed_al"), matcher)))
+        .extracting(Member::getUsername).containsExactly("renamed_Alpha");
+    assertThat(memberRepository.findAll(Example.of(new Member("edxal"), matcher))).isEmpty();
+  }
+
+}
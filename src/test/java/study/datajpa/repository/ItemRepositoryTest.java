@@ -3,7 +3,17 @@ package study.datajpa.repository;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
 import study.datajpa.entity.Item;
+import study.datajpa.support.StatementCounter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 
 @SpringBootTest
@@ -12,6 +22,12 @@ class ItemRepositoryTest {
   @Autowired
   private ItemRepository itemRepository;
 
+  @Autowired
+  private StatementCounter statementCounter;
+
+  @PersistenceContext
+  private EntityManager em;
+
 
   @Test
   void save() {
@@ -19,4 +35,37 @@ class ItemRepositoryTest {
     itemRepository.save(item);
   }
 
-}
\ No newline at end of file
+
+  @Test
+  @Transactional
+  void upsertAll() {
+    List<Item> items = new ArrayList<>();
+    for (int i = 0; i < 150; ++i)
+      items.add(new Item("upsert" + i));
+
+    long statements = statementCounter.current();
+    BatchInsertSummary summary = itemRepository.upsertAll(items);
+    assertThat(summary.getRows()).isEqualTo(150);
+    assertThat(summary.getChunks()).isEqualTo(2);
+    assertThat(statementCounter.current() - statements).isEqualTo(2);  // no select per item
+    LocalDateTime created = createdDate("upsert0");
+    assertThat(created).isNotNull();
+
+    items.add(new Item("upsert150"));
+    items.add(new Item("upsert150"));  // twice in this call: one row, the last occurrence
+    items.add(new Item("upsert0"));  // stored by the first call
+    summary = itemRepository.upsertAll(items.subList(100, items.size()));
+    assertThat(summary.getRows()).isEqualTo(52);  // 53 items, 52 distinct ids
+    assertThat(em.createQuery("select count(i) from Item i where i.id like 'upsert%'", Long.class)
+                 .getSingleResult()).isEqualTo(151);
+    assertThat(createdDate("upsert0")).isEqualTo(created);  // insert-only column kept
+  }
+
+
+  private LocalDateTime createdDate(String id) {
+    return em.createQuery("select i.createdDate from Item i where i.id = :id", LocalDateTime.class)
+             .setParameter("id", id)
+             .getSingleResult();
+  }
+
+}
@@ -0,0 +1,143 @@
+package study.datajpa.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.transaction.AfterTransaction;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+import study.datajpa.support.EntityChange;
+
+import javax.transaction.Transactional;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+
+// Works on committed rows, so ages start at 1000 to stay clear of other data in the database.
+@SpringBootTest(properties = {
+    "repository.column-store.enabled=true",
+    "repository.column-store.parallel-threshold=1"
+})
+class MemberColumnStoreTest {
+
+  @Autowired
+  MemberColumnStore columnStore;
+
+  @Autowired
+  MemberRepository memberRepository;
+
+  @Autowired
+  MemberJpaRepository memberJpaRepository;
+
+  @Autowired
+  TeamRepository teamRepository;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+
+  @Test
+  void countByAgeOverExtremeAges() {
+    Team team = teamRepository.save(new Team("columnWideTeam"));
+    List<Member> members = memberRepository.saveAll(List.of(new Member("columnMin", Integer.MIN_VALUE, team),
+                                                            new Member("columnMax1", Integer.MAX_VALUE, team),
+                                                            new Member("columnMax2", Integer.MAX_VALUE, team)));
+    try {
+      assertThat(columnStore.countByAge(team.getId())).containsExactly(entry(Integer.MIN_VALUE, 1L),
+                                                                       entry(Integer.MAX_VALUE, 2L));
+    }
+    finally {
+      memberRepository.deleteAllById(members.stream().map(Member::getId).collect(Collectors.toList()));
+      teamRepository.deleteById(team.getId());
+    }
+  }
+
+
+  @Test
+  void keptCurrent() {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    Team team = teamRepository.save(new Team("columnTeam"));
+    List<Member> members = memberRepository.saveAll(List.of(new Member("column1", 1001, team),
+                                                            new Member("column2", 1002, team),
+                                                            new Member("column3", 1002)));
+    try {
+      assertThat(columnStore.count(1001, 1002, null)).isEqualTo(3);
+      assertThat(columnStore.count(1001, 1002, team.getId())).isEqualTo(2);
+      assertThat(columnStore.countByAge(team.getId())).isEqualTo(Map.of(1001, 1L, 1002, 1L));
+      assertThat(columnStore.countByTeam(1001, 1002)).isEqualTo(Map.of(team.getId(), 2L));
+      assertThat(columnStore.usernames(1002, 1002, null)).containsExactlyInAnyOrder("column2", "column3");
+
+      transactionTemplate.executeWithoutResult(status -> {
+        Member member = memberRepository.findById(members.get(2).getId()).get();
+        member.setUsername("column3b");
+        member.setAge(1003);
+        member.changeTeam(teamRepository.findById(team.getId()).get());
+      });
+      assertThat(columnStore.countByAge(team.getId())).isEqualTo(Map.of(1001, 1L, 1002, 1L, 1003, 1L));
+      assertThat(columnStore.usernames(1003, 1003, team.getId())).containsExactly("column3b");
+
+      memberRepository.bulkAgePlus(1002);  // chunked bulk update
+      assertThat(columnStore.countByAge(team.getId())).isEqualTo(Map.of(1001, 1L, 1003, 1L, 1004, 1L));
+
+      transactionTemplate.executeWithoutResult(status -> memberJpaRepository.bulkAgePlus(1001));  // JPQL
+      assertThat(columnStore.countByAge(team.getId())).isEqualTo(Map.of(1002, 1L, 1004, 1L, 1005, 1L));
+
+      memberRepository.deleteById(members.get(0).getId());
+      assertThat(columnStore.count(1000, Integer.MAX_VALUE, null)).isEqualTo(2);
+    }
+    finally {
+      memberRepository.deleteAllById(members.stream()
+                                            .map(Member::getId)
+                                            .filter(id -> memberRepository.existsById(id))
+                                            .collect(Collectors.toList()));
+      teamRepository.deleteById(team.getId());
+    }
+    assertThat(columnStore.count(1000, Integer.MAX_VALUE, null)).isEqualTo(0);
+  }
+
+
+  @Test
+  void updateReportedAfterDelete() {
+    Member member = memberRepository.save(new Member("column4", 1006));
+    assertThat(columnStore.count(1006, 1006, null)).isEqualTo(1);
+
+    memberRepository.deleteById(member.getId());
+    assertThat(columnStore.count(1006, 1006, null)).isEqualTo(0);
+
+    // an earlier commit of the same row, reported late
+    columnStore.committed(new EntityChange(Member.class, member.getId(), member, EntityChange.Kind.UPDATE));
+    assertThat(columnStore.count(1006, 1006, null)).isEqualTo(0);
+  }
+
+
+  @Test
+  @Transactional  // rolled back; the store must not keep what it saw of this transaction
+  void uncommittedRowsStayOut() {
+    TransactionTemplate committed = new TransactionTemplate(transactionManager);
+    committed.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    Member member = committed.execute(status -> memberRepository.save(new Member("columnRolledBack", 1010)));
+    committed.executeWithoutResult(status -> memberRepository.updateWhere(  // stale, reloaded by the next query
+        MemberSpec.username("columnRolledBack"), BulkUpdate.<Member>create().set("age", 1011)));
+
+    memberRepository.findById(member.getId()).get().setAge(1020);
+    memberRepository.save(new Member("columnRolledBack", 1011));
+    memberRepository.flush();
+
+    assertThat(columnStore.count(1011, 1011, null)).isEqualTo(1);
+    assertThat(columnStore.count(1020, 1020, null)).isEqualTo(0);
+  }
+
+
+  @AfterTransaction
+  void deleteCommitted() {
+    memberRepository.deleteAll(memberRepository.findAll(MemberSpec.username("columnRolledBack")));
+  }
+
+}
@@ -0,0 +1,91 @@
+package study.datajpa.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import study.datajpa.entity.Member;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+// Works on committed rows; the window is long enough for all the threads to join the first batch.
+@SpringBootTest(properties = {
+    "repository.lookup.window=500ms",
+    "repository.lookup.max-batch=8"
+})
+class MemberLookupCoalescerTest {
+
+  @Autowired
+  MemberLookupCoalescer coalescer;
+
+  @Autowired
+  MemberRepository memberRepository;
+
+  @Autowired
+  MeterRegistry meterRegistry;
+
+
+  @Test
+  void concurrentLookups() throws Exception {
+    List<Member> members = memberRepository.saveAll(List.of(new Member("lookup1", 2001),
+                                                            new Member("lookup2", 2002),
+                                                            new Member("lookup3", 2003)));
+    List<Long> ids = members.stream().map(Member::getId).collect(Collectors.toList());
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      double lookupsBefore = count("repository.lookup.requests");
+      double loadsBefore = count("repository.lookup.loads");
+      CyclicBarrier start = new CyclicBarrier(8);
+      List<CompletableFuture<Optional<Member>>> results = new ArrayList<>();
+      for (int i = 0; i < 8; ++i) {
+        Long id = i < 7 ? ids.get(i % ids.size()) : Long.MAX_VALUE;
+        results.add(CompletableFuture.supplyAsync(() -> {
+          await(start);
+          return coalescer.findById(id);
+        }, executor));
+      }
+
+      for (int i = 0; i < 7; ++i)
+        assertThat(results.get(i).get().map(Member::getUsername)).contains("lookup" + (i % ids.size() + 1));
+      assertThat(results.get(7).get()).isEmpty();
+      Member first = results.get(0).get().get();
+      Member second = results.get(3).get().get();  // the same id, a copy of its own
+      assertThat(second).isNotSameAs(first);
+      second.setUsername("changed");
+      assertThat(first.getUsername()).isEqualTo("lookup1");
+      assertThat(first.getVersion()).isEqualTo(second.getVersion()).isNotNull();
+      assertThat(count("repository.lookup.requests") - lookupsBefore).isEqualTo(8);
+      assertThat(count("repository.lookup.loads") - loadsBefore).isLessThan(8);
+    }
+    finally {
+      executor.shutdown();
+      memberRepository.deleteAllById(ids);
+    }
+  }
+
+
+  private double count(String name) {
+    return meterRegistry.get(name).counter().count();
+  }
+
+
+  private static void await(CyclicBarrier barrier) {
+    try {
+      barrier.await();
+    }
+    catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
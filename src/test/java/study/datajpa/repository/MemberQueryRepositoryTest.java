@@ -0,0 +1,132 @@
+package study.datajpa.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import study.datajpa.dto.MemberDto;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+@SpringBootTest
+@Transactional
+class MemberQueryRepositoryTest {
+
+  @Autowired
+  MemberQueryRepository memberQueryRepository;
+
+  @Autowired
+  MemberRepository memberRepository;
+
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  @PersistenceContext
+  EntityManager em;
+
+
+  @Test
+  void findMemberDto() {
+    Team team = new Team("teamA");
+    em.persist(team);
+    Member member = new Member("member1", 10, team);
+    em.persist(member);
+    em.flush();
+    em.clear();
+
+    List<MemberDto> result = memberQueryRepository.findMemberDto();
+    assertThat(result).contains(new MemberDto(member.getId(), "member1", "teamA"));
+  }
+
+
+  @Test
+  void findMemberDtoPage() {
+    Team team = new Team("teamA");
+    em.persist(team);
+    em.persist(new Member("~member1", 10, team));
+    em.persist(new Member("~member2", 10));
+    em.flush();
+
+    Sort sort = Sort.by(Sort.Direction.DESC, "username");
+    Page<MemberDto> page = memberQueryRepository.findMemberDtoPage(PageRequest.of(0, 2, sort), CountMode.EXACT);
+    assertThat(page.getContent()).extracting(MemberDto::getUsername).containsExactly("~member2", "~member1");
+    assertThat(page.getContent()).extracting(MemberDto::getTeamName).containsExactly(null, "teamA");
+    assertThat(page.getTotalElements()).isEqualTo(em.createQuery("select count(m) from Member m", Long.class)
+                                                    .getSingleResult());
+
+    Page<MemberProjection> projections = memberQueryRepository.findMemberProjectionPage(PageRequest.of(0, 1, sort), CountMode.EXACT);
+    assertThat(projections.getContent().get(0).getUsername()).isEqualTo("~member2");
+  }
+
+
+  @Test
+  @Transactional(Transactional.TxType.NOT_SUPPORTED)  // the executor's transaction reads committed rows only
+  void findMemberDtoPageAsync() throws Exception {
+    Page<MemberDto> sync = memberQueryRepository.findMemberDtoPage(PageRequest.of(0, 3, Sort.by("id")), CountMode.EXACT);
+    Page<MemberDto> async = memberQueryRepository.findMemberDtoPageAsync(PageRequest.of(0, 3, Sort.by("id")), CountMode.EXACT)
+                                                 .get(10, TimeUnit.SECONDS);
+    assertThat(async.getContent()).isEqualTo(sync.getContent());
+    assertThat(async.getTotalElements()).isEqualTo(sync.getTotalElements());
+  }
+
+
+  @Test
+  @Transactional(Transactional.TxType.NOT_SUPPORTED)  // prefetches read committed rows on another thread
+  void findMemberDtoSliceByAgePrefetched() {
+    List<Member> members = memberRepository.saveAll(List.of(
+        new Member("slice1", 777), new Member("slice2", 777), new Member("slice3", 777),
+        new Member("slice4", 777), new Member("slice5", 777)));
+    try {
+      Pageable pageable = PageRequest.of(0, 2, Sort.by("username"));
+      List<String> plain = new ArrayList<>();
+      for (Slice<MemberDto> slice = null; slice == null || slice.hasNext(); pageable = slice.nextPageable()) {
+        slice = memberQueryRepository.findMemberDtoSliceByAge(777, pageable, SliceMode.PLAIN);
+        slice.forEach(m -> plain.add(m.getUsername()));
+      }
+      assertThat(plain).containsExactly("slice1", "slice2", "slice3", "slice4", "slice5");
+
+      double hits = prefetches("hit");
+      pageable = PageRequest.of(0, 2, Sort.by("username"));
+      List<String> prefetched = new ArrayList<>();
+      for (Slice<MemberDto> slice = null; slice == null || slice.hasNext(); pageable = slice.nextPageable()) {
+        slice = memberQueryRepository.findMemberDtoSliceByAge(777, pageable, SliceMode.PREFETCH);
+        slice.forEach(m -> prefetched.add(m.getUsername()));
+      }
+      assertThat(prefetched).isEqualTo(plain);
+      assertThat(prefetches("hit") - hits).isEqualTo(2);
+
+      double stale = prefetches("stale");
+      memberQueryRepository.findMemberDtoSliceByAge(777, PageRequest.of(0, 2, Sort.by("username")), SliceMode.PREFETCH);
+      memberRepository.save(new Member("slice0", 777));  // lands in the prefetched second slice
+      Slice<MemberDto> second = memberQueryRepository.findMemberDtoSliceByAge(
+          777, PageRequest.of(1, 2, Sort.by("username")), SliceMode.PREFETCH);
+      assertThat(prefetches("stale") - stale).isEqualTo(1);
+      assertThat(second.getContent()).extracting(MemberDto::getUsername).containsExactly("slice2", "slice3");
+    }
+    finally {
+      memberRepository.deleteAll(memberRepository.findAll(MemberSpec.ageFrom(777)));
+    }
+  }
+
+
+  private double prefetches(String result) {
+    return meterRegistry.counter("repository.slice.prefetch",
+                                 "query", "MemberQuery.findMemberDtoSliceByAge", "result", result).count();
+  }
+
+}
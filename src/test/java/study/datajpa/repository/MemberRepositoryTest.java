@@ -1,20 +1,36 @@
 package study.datajpa.repository;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.assertj.core.api.Assertions;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.data.domain.*;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.mapping.PropertyReferenceException;
+import org.springframework.transaction.support.TransactionTemplate;
 import study.datajpa.dto.MemberDto;
 import study.datajpa.entity.Member;
 import study.datajpa.entity.Team;
+import study.datajpa.support.CachedAuditor;
+import study.datajpa.support.NPlusOneDetector;
+import study.datajpa.support.PersistenceContextGuard;
+import study.datajpa.support.QueryBudget;
 
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
@@ -30,6 +46,21 @@ class MemberRepositoryTest {
   @Autowired
   TeamRepository teamRepository;
 
+  @Autowired
+  TransactionTemplate transactionTemplate;
+
+  @Autowired
+  NPlusOneDetector nPlusOneDetector;
+
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  @Autowired
+  CachedAuditor auditor;
+
+  @Autowired
+  PersistenceContextGuard persistenceContextGuard;
+
   @PersistenceContext
   EntityManager em;
 
@@ -218,6 +249,82 @@ class MemberRepositoryTest {
   }
 
 
+  @Test
+  @Transactional(Transactional.TxType.NOT_SUPPORTED)  // totals counted in a read-write transaction are not cached
+  void pagingCountCache() {
+    List<Member> members = new ArrayList<>();
+    for (int i = 1; i <= 5; ++i)
+      members.add(memberRepository.save(new Member("counted" + i, 201)));
+    try {
+      PageRequest pageRequest = PageRequest.of(0, 2);
+      CountedPage<Member> counted = (CountedPage<Member>) memberRepository.findByAge(201, pageRequest, CountMode.CACHED);
+      assertThat(counted.getTotalElements()).isEqualTo(5);
+      assertThat(counted.isTotalExact()).isTrue();
+
+      CountedPage<Member> cached = (CountedPage<Member>) memberRepository.findByAge(201, pageRequest, CountMode.CACHED);
+      assertThat(cached.getTotalElements()).isEqualTo(5);
+      assertThat(cached.isTotalExact()).isFalse();
+
+      members.add(memberRepository.save(new Member("counted6", 201)));  // a write to member invalidates the total
+
+      CountedPage<Member> recounted = (CountedPage<Member>) memberRepository.findByAge(201, pageRequest, CountMode.CACHED);
+      assertThat(recounted.getTotalElements()).isEqualTo(6);
+      assertThat(recounted.isTotalExact()).isTrue();
+
+      CountedPage<Member> estimated = (CountedPage<Member>) memberRepository.findByAge(201, pageRequest, CountMode.ESTIMATED);
+      assertThat(estimated.getTotalElements()).isEqualTo(6);
+      assertThat(estimated.isTotalExact()).isFalse();  // the cached total, not a count
+    }
+    finally {
+      memberRepository.deleteAll(members);
+    }
+  }
+
+
+  @Test
+  void pagingCountModes() {
+    for (int i = 1; i <= 5; ++i)
+      memberRepository.save(new Member("member" + i, 200));
+
+    PageRequest pageRequest = PageRequest.of(0, 2);
+    CountedPage<Member> exact = (CountedPage<Member>) memberRepository.findByAge(200, pageRequest, CountMode.EXACT);
+    assertThat(exact.getTotalElements()).isEqualTo(5);
+    assertThat(exact.isTotalExact()).isTrue();
+
+    CountedPage<Member> cached = (CountedPage<Member>) memberRepository.findByAge(200, pageRequest, CountMode.CACHED);
+    assertThat(cached.getTotalElements()).isEqualTo(5);
+    assertThat(cached.isTotalExact()).isTrue();  // counts with uncommitted rows are not cached
+
+    memberRepository.save(new Member("member6", 200));
+    em.flush();
+
+    CountedPage<Member> recounted = (CountedPage<Member>) memberRepository.findByAge(200, pageRequest, CountMode.CACHED);
+    assertThat(recounted.getTotalElements()).isEqualTo(6);
+    assertThat(recounted.isTotalExact()).isTrue();
+
+    CountedPage<Member> deferred = (CountedPage<Member>) memberRepository.findByAge(200, pageRequest, CountMode.DEFERRED);
+    assertThat(deferred.getTotalElements()).isEqualTo(6);
+
+    CountedPage<Member> estimated = (CountedPage<Member>) memberRepository.findByAge(200, pageRequest, CountMode.ESTIMATED);
+    assertThat(estimated.getTotalElements()).isEqualTo(6);
+
+    CountedPage<Member> lastPage = (CountedPage<Member>) memberRepository.findByAge(200, PageRequest.of(1, 4), CountMode.ESTIMATED);
+    assertThat(lastPage.isTotalExact()).isTrue();  // derived from the short last page, no count at all
+
+    // Another transaction doesn't see the uncommitted members, nor a total counted with them: an
+    // estimate would take any cached total, however stale.
+    TransactionTemplate readOnly = new TransactionTemplate(transactionTemplate.getTransactionManager());
+    readOnly.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+    readOnly.setReadOnly(true);
+    Page<Member> elsewhere = readOnly.execute(status -> memberRepository.findByAge(200, PageRequest.of(1, 2), CountMode.ESTIMATED));
+    assertThat(elsewhere.getTotalElements()).isEqualTo(0);
+
+    Page<MemberProjection> projections = memberRepository.findByNativeProjection(pageRequest, CountMode.ESTIMATED);
+    assertThat(projections.getContent().size()).isEqualTo(2);
+    assertThat(projections.getTotalElements()).isGreaterThanOrEqualTo(2);
+  }
+
+
   @Test
   void slicing() {
     memberRepository.save(new Member("member1", 10));
@@ -240,6 +347,36 @@ class MemberRepositoryTest {
   }
 
 
+  @Test
+  void keysetWindow() {
+    memberRepository.save(new Member("member1", 10));
+    memberRepository.save(new Member("member2", 10));
+    memberRepository.save(new Member("member2", 20));
+    memberRepository.save(new Member(null, 30));
+    memberRepository.save(new Member("member3", 10));
+
+    Sort sort = Sort.by(Sort.Direction.DESC, "username");
+    List<Member> seen = new ArrayList<>();
+    String continuation = null;
+    do {
+      KeysetWindow<Member> window = memberRepository.findMemberWindow(sort, continuation, 2);
+      assertThat(window.getContent().size()).isLessThanOrEqualTo(2);
+      seen.addAll(window.getContent());
+      continuation = window.getContinuation();
+    } while (continuation != null);
+
+    assertThat(seen.size()).isEqualTo((int) memberRepository.count());
+    assertThat(seen.stream().map(Member::getId).distinct().count()).isEqualTo(seen.size());
+    assertThat(seen.get(seen.size() - 1).getUsername()).isNull();  // nulls last
+    for (int i = 1; i < seen.size(); ++i) {
+      String prev = seen.get(i - 1).getUsername();
+      String cur = seen.get(i).getUsername();
+      if (cur != null)
+        assertThat(prev.compareTo(cur)).isGreaterThanOrEqualTo(0);
+    }
+  }
+
+
   @Test
   void listing() {
     memberRepository.save(new Member("member1", 10));
@@ -275,6 +412,90 @@ class MemberRepositoryTest {
   }
 
 
+  @Test
+  void updateAndDeleteWhere() {
+    Member young = memberRepository.save(new Member("bulk1", 500));
+    Member old = memberRepository.save(new Member("bulk2", 600));
+    em.flush();
+
+    int updated = memberRepository.updateWhere(MemberSpec.username("bulk2"),
+                                               BulkUpdate.<Member>create().increment("age", 1).set("username", "bulk3"));
+    assertThat(updated).isEqualTo(1);
+    assertThat(em.contains(young)).isTrue();  // untouched entities stay managed
+    assertThat(em.contains(old)).isFalse();
+    Member reloaded = memberRepository.findById(old.getId()).get();
+    assertThat(reloaded.getAge()).isEqualTo(601);
+    assertThat(reloaded.getUsername()).isEqualTo("bulk3");
+
+    int deleted = memberRepository.deleteWhere(MemberSpec.ageFrom(500).and(MemberSpec.username("bulk1")));
+    assertThat(deleted).isEqualTo(1);
+    assertThat(memberRepository.findById(young.getId())).isEmpty();
+  }
+
+
+  @Test
+  void auditing() {
+    Member member;
+    try (CachedAuditor.Scope scope = auditor.open("alice")) {
+      member = memberRepository.save(new Member("audited", 700));
+      em.flush();
+    }
+    assertThat(member.getCreatedBy()).isEqualTo("alice");
+    assertThat(member.getLastModifiedBy()).isEqualTo("alice");
+    assertThat(member.getCreatedDate()).isNotNull();
+    assertThat(member.getLastModifiedDate()).isEqualTo(member.getCreatedDate());
+
+    try (CachedAuditor.Scope scope = auditor.open("bob")) {
+      memberRepository.updateWhere(MemberSpec.username("audited"), BulkUpdate.<Member>create().increment("age", 1));
+    }
+    Member reloaded = memberRepository.findById(member.getId()).get();
+    assertThat(reloaded.getCreatedBy()).isEqualTo("alice");
+    assertThat(reloaded.getLastModifiedBy()).isEqualTo("bob");
+    assertThat(reloaded.getLastModifiedDate()).isAfterOrEqualTo(reloaded.getCreatedDate());
+
+    assertThat(auditor.current()).isEqualTo(auditor.current());  // cached per thread outside a scope
+  }
+
+
+  @Test
+  void saveAllBatched() {
+    List<Team> teams = List.of(new Team("teamA"), new Team("teamB"));
+    BatchInsertSummary teamSummary = teamRepository.saveAllBatched(teams);
+    assertThat(teamSummary.getRows()).isEqualTo(2);
+
+    List<Member> members = new ArrayList<>();
+    for (int i = 0; i < 250; ++i)
+      members.add(new Member("batch" + i, 300, teams.get(i % 2)));
+    BatchInsertSummary summary = memberRepository.saveAllBatched(members);
+
+    assertThat(summary.getRows()).isEqualTo(250);
+    assertThat(summary.getChunks()).isEqualTo(3);
+    assertThat(em.contains(members.get(0))).isFalse();  // cleared chunk by chunk
+    assertThat(memberRepository.findListByAge(300, Pageable.unpaged()).size()).isEqualTo(250);
+  }
+
+
+  @Test
+  void streamAll() {
+    Team team = new Team("teamA");
+    teamRepository.save(team);
+    memberRepository.save(new Member("member1", 10, team));
+    memberRepository.save(new Member("member2", 20, team));
+    em.flush();
+    em.clear();
+
+    long count = memberRepository.count();
+    try (Stream<Member> members = memberRepository.streamAll(2)) {
+      long streamed = members.peek(m -> assertThat(em.contains(m)).isTrue())
+                             .filter(m -> m.getTeam() != null && m.getTeam().getName().equals("teamA"))
+                             .count();
+      assertThat(streamed).isEqualTo(2);
+    }
+    assertThat(em.unwrap(Session.class).getStatistics().getEntityCount()).isEqualTo(0);
+    assertThat(memberRepository.count()).isEqualTo(count);
+  }
+
+
   @Test
   void findMemberLazy() {
     Team teamA = new Team("teamA");
@@ -297,6 +518,69 @@ class MemberRepositoryTest {
   }
 
 
+  @Test
+  void batchFetching() {
+    for (int i = 0; i < 5; ++i) {
+      Team team = teamRepository.save(new Team("team" + i));
+      memberRepository.save(new Member("batch" + i, 10, team));
+      memberRepository.save(new Member("batch" + i, 20, team));
+    }
+    em.flush();
+    em.clear();
+
+    try (NPlusOneDetector.Scope scope = nPlusOneDetector.open("batchFetching")) {
+      for (Member member : memberRepository.findMemberCustom())  // no fetch graph, the teams are lazy proxies
+        if (member.getTeam() != null)
+          assertThat(member.getTeam().getMembers().size()).isEqualTo(2);
+      assertThat(scope.statements()).isEqualTo(3);  // the members, one IN query for the teams, one for their members
+      assertThat(scope.maxSimilar()).isEqualTo(1);
+    }
+  }
+
+
+  @Test
+  void persistenceContextGuard() {
+    for (int i = 0; i < 3; ++i)
+      memberRepository.save(new Member("guarded", 10));
+    em.flush();
+    em.clear();
+
+    try (PersistenceContextGuard.Scope scope = persistenceContextGuard.open("persistenceContextGuard")) {
+      List<Member> members = memberRepository.findByUsername("guarded");
+      members.get(0).setAge(11);
+      em.flush();
+
+      PersistenceContextGuard.Usage usage = scope.usage();
+      assertThat(usage.getEntitiesLoaded()).isEqualTo(3);
+      assertThat(usage.getFlushes()).isEqualTo(1);
+      assertThat(usage.getEntitiesFlushed()).isEqualTo(3);  // all three dirty-checked for one change
+      assertThat(usage.getStatements()).isEqualTo(2);
+    }
+  }
+
+
+  @Test
+  void repositoryMetrics() {
+    memberRepository.save(new Member("metered", 10));
+    memberRepository.save(new Member("metered", 20));
+    em.flush();
+
+    memberRepository.findByUsername("metered");
+    assertThat(meterRegistry.get("repository.invocations")
+                            .tags("repository", "memberRepository", "method", "findByUsername(String)")
+                            .timer()
+                            .count()).isGreaterThanOrEqualTo(1);
+    assertThat(meterRegistry.get("repository.rows")
+                            .tags("repository", "memberRepository", "method", "findByUsername(String)")
+                            .summary()
+                            .max()).isGreaterThanOrEqualTo(2);
+    assertThat(meterRegistry.get("repository.statements")
+                            .tags("repository", "memberRepository", "method", "findByUsername(String)")
+                            .summary()
+                            .count()).isGreaterThanOrEqualTo(1);
+  }
+
+
   private void printMember(Member member) {
     System.out.println("member = " + member);
     System.out.println("member.teamClass = " + member.getTeam().getClass());
@@ -305,6 +589,7 @@ class MemberRepositoryTest {
 
 
   @Test
+  @QueryBudget(statements = 4, entities = 1)
   void queryHint() {
     String name = "member1";
     Member member = new Member(name, 10);
@@ -321,6 +606,61 @@ class MemberRepositoryTest {
   }
 
 
+  @Test
+  @Transactional(Transactional.TxType.NOT_SUPPORTED)  // entries are cached only once the insert commits
+  void secondLevelCache() {
+    Cache cache = em.getEntityManagerFactory().getCache();
+    Member member = memberRepository.save(new Member("cached", 1000));
+    try {
+      assertThat(cache.contains(Member.class, member.getId())).isTrue();
+      assertThat(memberRepository.findById(member.getId()).get().getAge()).isEqualTo(1000);
+
+      transactionTemplate.executeWithoutResult(status -> memberRepository.bulkAgePlus(1000));
+      // a released lock, not served, until a load that started after the commit puts the new state
+      Object cached = transactionTemplate.execute(status -> cachedMember(member.getId()));
+      assertThat(cached).isNull();
+      assertThat(memberRepository.findById(member.getId()).get().getAge()).isEqualTo(1001);
+    }
+    finally {
+      memberRepository.deleteById(member.getId());
+    }
+  }
+
+
+  @Test
+  @Transactional(Transactional.TxType.NOT_SUPPORTED)  // the collection is cached once a read commits
+  void collectionCacheEvictedWithMember() {
+    Team team = teamRepository.save(new Team("cachedTeam"));
+    Member kept = memberRepository.save(new Member("cachedKept", 1000, team));
+    Member removed = memberRepository.save(new Member("cachedRemoved", 1000, team));
+    try {
+      Integer size = transactionTemplate.execute(status -> teamRepository.findById(team.getId()).get().getMembers().size());
+      assertThat(size).isEqualTo(2);
+      assertThat(em.getEntityManagerFactory().unwrap(SessionFactory.class).getCache()
+                   .containsCollection("study.datajpa.entity.Team.members", team.getId())).isTrue();
+
+      memberRepository.deleteById(removed.getId());
+      List<String> usernames = transactionTemplate.execute(status -> teamRepository.findById(team.getId()).get()
+                                                                                   .getMembers().stream()
+                                                                                   .map(Member::getUsername)
+                                                                                   .collect(Collectors.toList()));
+      Assertions.assertThat(usernames).containsExactly("cachedKept");
+    }
+    finally {
+      memberRepository.deleteById(kept.getId());
+      teamRepository.deleteById(team.getId());
+    }
+  }
+
+
+  private Object cachedMember(Long id) {
+    SessionImplementor session = em.unwrap(SessionImplementor.class);
+    EntityPersister persister = session.getFactory().getMetamodel().entityPersister(Member.class);
+    EntityDataAccess access = persister.getCacheAccessStrategy();
+    return access.get(session, access.generateCacheKey(id, persister, session.getFactory(), null));
+  }
+
+
   @Test
   void customQuery() {
     memberRepository.findMemberCustom();
@@ -347,6 +687,34 @@ class MemberRepositoryTest {
   }
 
 
+  @Test
+  public void specPlanCache() {
+    given();
+
+    double hits = meterRegistry.get("cache.gets").tags("cache", "specification.plans", "result", "hit")
+                               .functionCounter().count();
+    assertThat(memberRepository.findAll(MemberSpec.username("m1").and(MemberSpec.teamName("teamA"))).size()).isEqualTo(1);
+    assertThat(memberRepository.findAll(MemberSpec.username("m2").and(MemberSpec.teamName("teamA"))).size()).isEqualTo(1);
+    assertThat(memberRepository.findAll(MemberSpec.username("m2").and(MemberSpec.teamName("teamB"))).size()).isEqualTo(0);
+    assertThat(meterRegistry.get("cache.gets").tags("cache", "specification.plans", "result", "hit")
+                            .functionCounter().count()).isGreaterThanOrEqualTo(hits + 2);
+
+    Specification<Member> opaque = (root, query, builder) -> builder.equal(root.get("age"), 0);
+    assertThat(memberRepository.findAll(MemberSpec.username("m1").and(opaque)).size()).isEqualTo(1);
+
+    Page<Member> page = memberRepository.findAll(MemberSpec.username("m1"),
+                                                 PageRequest.of(0, 1, Sort.by(Sort.Direction.DESC, "age")));
+    assertThat(page.getTotalElements()).isEqualTo(2);
+    assertThat(page.getContent().get(0).getAge()).isEqualTo(10);
+    assertThat(memberRepository.count(MemberSpec.teamName("teamA"))).isEqualTo(2);
+    assertThat(memberRepository.findOne(MemberSpec.username("m2")).map(Member::getAge)).contains(20);
+    assertThat(memberRepository.findAll(MemberSpec.username(null).and(MemberSpec.teamName("teamA"))).size()).isEqualTo(0);
+    Assertions.assertThatThrownBy(() -> memberRepository.findAll(MemberSpec.username("m1"),
+                                                                 PageRequest.of(0, 1, Sort.by("age, (select count(t) from Team t)"))))
+              .isInstanceOf(PropertyReferenceException.class);
+  }
+
+
   @Test
   public void queryByExample() {
     given();
@@ -368,6 +736,57 @@ class MemberRepositoryTest {
   }
 
 
+  @Test
+  public void queryByExampleMatchingAny() {
+    given();
+    em.persist(new Member("m2"));
+    Team teamC = new Team("teamC");
+    em.persist(teamC);
+    em.persist(new Member("other", 30, teamC));
+    em.flush();
+    em.clear();
+
+    // the team is joined, only its values and the username are alternatives
+    ExampleMatcher matcher = ExampleMatcher.matchingAny().withIgnorePaths("age");
+    var result = memberRepository.findAll(Example.of(new Member("m2", 0, new Team("teamB")), matcher));
+    assertThat(result.size()).isEqualTo(2);
+    Assertions.assertThat(result).extracting(Member::getAge).containsExactlyInAnyOrder(10, 20);
+  }
+
+
+  @Test
+  public void queryByExampleContaining() {
+    Team alpha = new Team("alphaTeam");
+    Team beta = new Team("betaTeam");
+    em.persist(alpha);
+    em.persist(beta);
+    em.persist(new Member("memberAlpha", 10, alpha));
+    em.persist(new Member("memberBeta", 20, beta));
+    em.persist(new Member("otherAlpha", 30, alpha));
+    em.flush();
+    em.clear();
+
+    ExampleMatcher matcher = ExampleMatcher.matching()
+                                           .withIgnorePaths("age")
+                                           .withMatcher("username", m -> m.contains().ignoreCase())
+                                           .withMatcher("team.name", m -> m.startsWith());
+    var result1 = memberRepository.findAll(Example.of(new Member("ALPHA", 0, new Team("alpha")), matcher));
+    assertThat(result1.size()).isEqualTo(2);
+
+    var result2 = memberRepository.findAll(Example.of(new Member("member", 0, new Team("beta")), matcher));
+    assertThat(result2.size()).isEqualTo(1);
+    assertThat(result2.get(0).getUsername()).isEqualTo("memberBeta");
+
+    // not flushed yet, the index learns about it when the search flushes
+    memberRepository.findByUsername("otherAlpha").get(0).setUsername("renamed_Alpha");
+    var result3 = memberRepository.findAll(Example.of(new Member("ed_al", 0, new Team("alpha")), matcher));
+    assertThat(result3.size()).isEqualTo(1);
+
+    var result4 = memberRepository.findAll(Example.of(new Member("edxal", 0, new Team("alpha")), matcher));
+    assertThat(result4.size()).isEqualTo(0);
+  }
+
+
   private void given() {
     Team teamA = new Team("teamA");
     Team teamB = new Team("teamB");
@@ -429,6 +848,7 @@ class MemberRepositoryTest {
     var result = memberRepository.findProjectionsByUsername(name, NestedClosedProjection.class);
     assertThat(result.size()).isEqualTo(2);
     assertThat(result.get(0).getUsername()).isEqualTo(name);
+    assertThat(result.get(0).getTeam().getName()).isEqualTo("teamA");
   }
 
 
@@ -0,0 +1,110 @@
+package study.datajpa.repository;
+
+import org.hibernate.LazyInitializationException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+// Works on committed rows; chunks of two make three parallel chunks out of five distinct keys.
+// A pool of three with two repository workers leaves each worker exactly one connection once a
+// synchronous request holds the third; a short connection timeout turns a worker that asks for a
+// second one into a failure instead of a hang.
+@SpringBootTest(properties = {"repository.multi-get.chunk-size=2",
+                              "spring.datasource.hikari.maximum-pool-size=3",
+                              "spring.datasource.hikari.connection-timeout=1000",
+                              "repository.async.max-concurrency=2"})
+class MultiGetTemplateTest {
+
+  @Autowired
+  MemberRepository memberRepository;
+
+  @Autowired
+  TeamRepository teamRepository;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Autowired
+  DataSource dataSource;
+
+
+  @Test
+  void orderedWithMisses() {
+    Team team = teamRepository.save(new Team("multiGetTeam"));
+    List<Member> members = memberRepository.saveAll(List.of(new Member("multiGet1", 3001, team),
+                                                            new Member("multiGet2", 3002),
+                                                            new Member("multiGet3", 3003),
+                                                            new Member("multiGet4", 3004)));
+    List<Long> ids = members.stream().map(Member::getId).collect(Collectors.toList());
+    try {
+      List<Long> keys = Arrays.asList(ids.get(3), Long.MAX_VALUE, ids.get(0), null, ids.get(2), ids.get(3), ids.get(1));
+      MultiGetResult<Long, Member> byId = memberRepository.multiGetById(keys);
+      assertThat(byId.size()).isEqualTo(7);
+      assertThat(byId.getFound()).extracting(Member::getUsername)
+                                 .containsExactly("multiGet4", "multiGet1", "multiGet3", "multiGet4", "multiGet2");
+      assertThat(byId.isMiss(1)).isTrue();
+      assertThat(byId.isMiss(3)).isTrue();
+      assertThat(byId.getMissingKeys()).containsExactly(Long.MAX_VALUE, null);
+
+      MultiGetResult<String, Member> byUsername =
+          memberRepository.multiGetByUsername(List.of("multiGet3", "nobody", "multiGet1"));
+      assertThat(byUsername.get(0).map(Member::getId)).contains(ids.get(2));
+      assertThat(byUsername.get(1)).isEmpty();
+      assertThat(byUsername.get(2).map(Member::getId)).contains(ids.get(0));
+
+      Member detached = memberRepository.multiGetById(List.of(ids.get(0))).get(0).get();  // a single chunk
+      assertThatThrownBy(() -> detached.getTeam().getName()).isInstanceOf(LazyInitializationException.class);
+
+      new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+        MultiGetResult<Long, Member> managed = memberRepository.multiGetById(ids);
+        assertThat(managed.get(0).get().getTeam().getName()).isEqualTo("multiGetTeam");
+      });
+
+      MultiGetResult<Long, Team> teams = teamRepository.multiGetById(List.of(team.getId(), Long.MAX_VALUE));
+      assertThat(teams.get(0).map(Team::getName)).contains("multiGetTeam");
+      assertThat(teams.isMiss(1)).isTrue();
+    }
+    finally {
+      memberRepository.deleteAllById(ids);
+      teamRepository.deleteById(team.getId());
+    }
+  }
+
+
+  @Test
+  void moreChunksThanFreeConnections() throws SQLException {
+    List<Member> members = memberRepository.saveAll(IntStream.rangeClosed(1, 8)
+                                                             .mapToObj(i -> new Member("multiGetPool" + i, 3100 + i))
+                                                             .collect(Collectors.toList()));
+    List<Long> ids = members.stream().map(Member::getId).collect(Collectors.toList());
+    Connection held = dataSource.getConnection();  // a synchronous request's connection
+    try {
+      MultiGetResult<Long, Member> result = memberRepository.multiGetById(ids);
+      assertThat(result.getFound()).extracting(Member::getUsername)
+                                   .containsExactlyElementsOf(members.stream()
+                                                                     .map(Member::getUsername)
+                                                                     .collect(Collectors.toList()));
+    }
+    finally {
+      held.close();
+      memberRepository.deleteAllById(ids);
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+package study.datajpa.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.Member;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+// Concurrent writers on one hot row, with PESSIMISTIC_WRITE and with optimistic retries.
+// Both must lose no increment; the elapsed times are logged for comparison.
+@Slf4j
+@SpringBootTest(properties = {
+    "repository.optimistic.max-attempts=100",
+    "repository.optimistic.initial-backoff=1ms",
+    "repository.optimistic.max-backoff=20ms"
+})
+class OptimisticRetryTemplateTest {
+
+  private static final int WRITERS = 4;
+  private static final int INCREMENTS = 25;
+
+  @Autowired
+  MemberRepository memberRepository;
+
+  @Autowired
+  OptimisticRetryTemplate optimisticRetryTemplate;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Autowired
+  MeterRegistry meterRegistry;
+
+
+  @Test
+  void pessimisticVersusOptimistic() throws Exception {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+    Member pessimistic = memberRepository.save(new Member("hot-pessimistic", 0));
+    Member optimistic = memberRepository.save(new Member("hot-optimistic", 0));
+    try {
+      long pessimisticNanos = concurrently(() -> transactionTemplate.executeWithoutResult(status -> {
+        Member member = memberRepository.findLockByUsername("hot-pessimistic").get(0);
+        member.setAge(member.getAge() + 1);
+      }));
+      long optimisticNanos = concurrently(() -> optimisticRetryTemplate.execute("hot-member", () -> {
+        Member member = memberRepository.findById(optimistic.getId()).get();
+        member.setAge(member.getAge() + 1);
+        return member;
+      }));
+
+      double conflicts = meterRegistry.counter("repository.optimistic.conflicts", "operation", "hot-member").count();
+      log.info("{} writers x {} increments: pessimistic {} ms, optimistic {} ms with {} conflicts",
+               WRITERS, INCREMENTS, TimeUnit.NANOSECONDS.toMillis(pessimisticNanos),
+               TimeUnit.NANOSECONDS.toMillis(optimisticNanos), (long) conflicts);
+
+      assertThat(memberRepository.findById(pessimistic.getId()).get().getAge()).isEqualTo(WRITERS * INCREMENTS);
+      Member result = memberRepository.findById(optimistic.getId()).get();
+      assertThat(result.getAge()).isEqualTo(WRITERS * INCREMENTS);
+      assertThat(result.getVersion()).isEqualTo(WRITERS * INCREMENTS);
+    }
+    finally {
+      memberRepository.deleteAllById(List.of(pessimistic.getId(), optimistic.getId()));
+    }
+  }
+
+
+  @Test
+  void staleWriteConflictsUntilAttemptsRunOut() {
+    TransactionTemplate concurrentWriter = new TransactionTemplate(transactionManager);
+    concurrentWriter.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+    Member member = memberRepository.save(new Member("stale", 0));
+    try {
+      assertThatThrownBy(() -> optimisticRetryTemplate.execute("stale", () -> {
+        Member current = memberRepository.findById(member.getId()).get();
+        concurrentWriter.executeWithoutResult(status -> memberRepository.updateWhere(
+            MemberSpec.username("stale"), BulkUpdate.<Member>create().increment("age", 1)));
+        current.setAge(-1);  // the bulk update bumped the version underneath
+        return current;
+      })).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+
+      assertThat(meterRegistry.counter("repository.optimistic.exhausted", "operation", "stale").count()).isEqualTo(1);
+      assertThat(memberRepository.findById(member.getId()).get().getAge()).isEqualTo(100);
+    }
+    finally {
+      memberRepository.deleteById(member.getId());
+    }
+  }
+
+
+  @Test
+  void backoffStaysWithinJitter() {
+    for (int attempt = 1; attempt < 40; ++attempt) {
+      long backoff = Math.min(TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.MILLISECONDS.toNanos(1) << Math.min(attempt - 1, 30));
+      assertThat(optimisticRetryTemplate.backoff(attempt)).isBetween(backoff / 2, backoff + backoff / 2);
+    }
+  }
+
+
+  private static long concurrently(Runnable increment) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < WRITERS; ++i)
+        futures.add(executor.submit(() -> {
+          start.await();
+          for (int n = 0; n < INCREMENTS; ++n)
+            increment.run();
+          return null;
+        }));
+      long begin = System.nanoTime();
+      start.countDown();
+      for (Future<?> future : futures)
+        future.get(1, TimeUnit.MINUTES);
+      return System.nanoTime() - begin;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,97 @@
+package study.datajpa.support;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.datajpa.entity.ChangeEvent;
+import study.datajpa.entity.Item;
+import study.datajpa.entity.Member;
+import study.datajpa.entity.Team;
+import study.datajpa.repository.ItemRepository;
+import study.datajpa.repository.MemberJpaRepository;
+import study.datajpa.repository.MemberRepository;
+import study.datajpa.repository.TeamRepository;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+// Works on committed rows; the ages are far above anything else in the database, so the bulk updates
+// only touch the member created here.
+@SpringBootTest(properties = {
+    "repository.outbox.enabled=true",
+    "repository.outbox.sink=memory",
+    "repository.outbox.batch-size=2",
+    "repository.outbox.poll-interval-ms=3600000"
+})
+class ChangeEventOutboxTest {
+
+  @Autowired
+  ChangeEventRelay relay;
+
+  @Autowired
+  InMemoryChangeEventSink sink;
+
+  @Autowired
+  MemberRepository memberRepository;
+
+  @Autowired
+  MemberJpaRepository memberJpaRepository;
+
+  @Autowired
+  TeamRepository teamRepository;
+
+  @Autowired
+  ItemRepository itemRepository;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+
+  @Test
+  void recordedWithTheTransaction() {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    relay.drain();
+    sink.clear();
+
+    Team team = teamRepository.save(new Team("outboxTeam"));
+    Member member = memberRepository.save(new Member("outbox", 5000, team));
+    transactionTemplate.executeWithoutResult(status ->
+        memberRepository.findById(member.getId()).get().setUsername("outbox2"));
+    transactionTemplate.executeWithoutResult(status -> {
+      memberRepository.findById(member.getId()).get().setUsername("rolledBack");
+      status.setRollbackOnly();
+    });
+    memberRepository.bulkAgePlus(5000);  // chunked, by id
+    transactionTemplate.executeWithoutResult(status -> memberJpaRepository.bulkAgePlus(5001));  // JPQL
+    itemRepository.upsertAll(List.of(new Item("outbox-item")));
+    memberRepository.deleteById(member.getId());
+    itemRepository.deleteById("outbox-item");
+    teamRepository.deleteById(team.getId());
+
+    assertThat(relay.drain()).isEqualTo(9);
+    Set<String> ids = Set.of(member.getId().toString(), team.getId().toString(), "outbox-item");
+    List<String> events = sink.events()
+                              .stream()
+                              .filter(e -> ids.contains(e.getEntityId()))
+                              .map(e -> e.getEntityType() + " " + e.getKind() + " " + e.getVersion())
+                              .collect(Collectors.toList());
+    assertThat(events).containsExactly("Team INSERT 0",
+                                       "Member INSERT 0",
+                                       "Member UPDATE 1",
+                                       "Member UPDATE 2",
+                                       "Member UPDATE 3",
+                                       "Item UPDATE null",
+                                       "Member DELETE 3",
+                                       "Item DELETE null",
+                                       "Team DELETE 0");
+    assertThat(sink.events()).extracting(ChangeEvent::getOccurredAt).doesNotContainNull();
+    assertThat(relay.drain()).isEqualTo(0);
+  }
+
+}
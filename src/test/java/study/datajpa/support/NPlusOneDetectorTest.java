@@ -0,0 +1,33 @@
+package study.datajpa.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+class NPlusOneDetectorTest {
+
+  @Test
+  void shape() {
+    assertThat(NPlusOneDetector.shape("select t.name from team t\n where t.team_id in (?, ?, ?)"))
+        .isEqualTo(NPlusOneDetector.shape("select t.name from team t where t.team_id in (?)"));
+    assertThat(NPlusOneDetector.shape("select * from member where username = 'a''b' and age = 10"))
+        .isEqualTo("select * from member where username = ? and age = ?");
+  }
+
+
+  @Test
+  void failsOverThreshold() {
+    NPlusOneDetector detector = new NPlusOneDetector(NPlusOneDetector.Mode.FAIL, 2);
+    try (NPlusOneDetector.Scope scope = detector.open("test")) {
+      detector.inspect("select * from team where team_id = ?");
+      detector.inspect("select * from team where team_id = ?");
+      assertThatThrownBy(() -> detector.inspect("select * from team where team_id = ?"))
+          .isInstanceOf(IllegalStateException.class);
+      assertThat(scope.statements()).isEqualTo(3);
+    }
+    detector.inspect("select * from team where team_id = ?");  // outside any scope
+  }
+
+}
@@ -0,0 +1,29 @@
+package study.datajpa.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+class PersistenceContextGuardTest {
+
+  @Test
+  void failsOverStatementCeiling() {
+    PersistenceContextGuard guard = new PersistenceContextGuard(PersistenceContextGuard.Mode.FAIL, 2, 10,
+                                                                Duration.ofSeconds(1));
+    try (PersistenceContextGuard.Scope scope = guard.open("test")) {
+      guard.inspect("select 1");
+      guard.inspect("select 1");
+      assertThatThrownBy(() -> guard.inspect("select 1"))
+          .isInstanceOf(IllegalStateException.class)
+          .hasMessageContaining("3 statements");
+      assertThat(scope.usage().getStatements()).isEqualTo(3);
+    }
+    guard.inspect("select 1");  // outside any scope or transaction
+    assertThat(guard.current()).isNull();
+  }
+
+}
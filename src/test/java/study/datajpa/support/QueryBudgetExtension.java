@@ -0,0 +1,38 @@
+package study.datajpa.support;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+// Collects a @QueryBudget test's usage through a PersistenceContextGuard scope and checks it afterwards.
+public class QueryBudgetExtension implements BeforeEachCallback, AfterEachCallback {
+
+  private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(QueryBudgetExtension.class);
+
+
+  @Override
+  public void beforeEach(ExtensionContext context) {
+    PersistenceContextGuard guard = SpringExtension.getApplicationContext(context)
+                                                   .getBean(PersistenceContextGuard.class);
+    context.getStore(NAMESPACE).put("scope", guard.open(context.getDisplayName()));
+  }
+
+
+  @Override
+  public void afterEach(ExtensionContext context) {
+    PersistenceContextGuard.Scope scope = context.getStore(NAMESPACE)
+                                                 .remove("scope", PersistenceContextGuard.Scope.class);
+    scope.close();
+    QueryBudget budget = context.getRequiredTestMethod().getAnnotation(QueryBudget.class);
+    PersistenceContextGuard.Usage usage = scope.usage();
+    if (budget.statements() >= 0)
+      assertThat(usage.getStatements()).as("statements (%s)", usage).isLessThanOrEqualTo(budget.statements());
+    if (budget.entities() >= 0)
+      assertThat(usage.getEntitiesLoaded()).as("entities loaded (%s)", usage).isLessThanOrEqualTo(budget.entities());
+  }
+
+}